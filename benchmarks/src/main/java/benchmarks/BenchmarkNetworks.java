@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2017 Juan Francisco Robles Fuentes.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * @author Juan Francisco Robles Fuentes.
+ */
+
+/**
+ * BenchmarkNetworks class.
+ *
+ * Networks and configuration files used by the benchmarks. A network is given by name:
+ *   -> The name of a file of the networks folder (i.e. "SF-1024nodes.gexf").
+ *   -> "synthetic-N" - A small world network of N nodes (ring lattice with 3 neighbours at
+ *   each side and rewiring probability 0.1). It is generated once with a fixed seed and
+ *   cached as a .dgs file in the temporary directory.
+ *
+ * The networks folder is ../networks (relative to the benchmarks module) unless the system
+ * property tget.networks is given.
+ */
+
+public final class BenchmarkNetworks {
+
+	public static final String SYNTHETIC = "synthetic-";
+
+	private static final int LATTICE_NEIGHBOURS = 3;
+	private static final double REWIRING_PROB = 0.1;
+	private static final long SYNTHETIC_SEED = 1234L;
+
+	private BenchmarkNetworks(){
+	}
+
+	/**
+	 * Get the path of a benchmark network, generating it if it is synthetic.
+	 * @param name Network name.
+	 * @return Network file path.
+	 * @throws IOException If the synthetic network can not be written.
+	 */
+	public static String getNetworkPath(String name) throws IOException{
+		if (name.startsWith(SYNTHETIC)){
+			int nodes = Integer.parseInt(name.substring(SYNTHETIC.length()));
+			File file = new File(System.getProperty("java.io.tmpdir"), "tget-" + name + ".dgs");
+			if (!file.exists())
+				writeSmallWorld(file, nodes);
+			return file.getPath();
+		}
+		File file = new File(System.getProperty("tget.networks", "../networks"), name);
+		if (!file.exists())
+			throw new IOException("Network file not found: " + file.getPath());
+		return file.getPath();
+	}
+
+	/**
+	 * Writes a configuration file for a market over a benchmark network. The configuration
+	 * follows configuration_files/config_boston_airbnb.properties (extended model with one
+	 * Monte Carlo replica).
+	 * @param networkPath Network file path.
+	 * @param days Number of steps of the simulation.
+	 * @param numProducts Number of products of the market (without the optimized one).
+	 * @param visibility Product visibility (0 - low, 1 - normal, 2 - random).
+	 * @return Configuration file path.
+	 * @throws IOException If the file can not be written.
+	 */
+	public static String writeConfiguration(String networkPath, int days, int numProducts, int visibility) throws IOException{
+		Properties config = new Properties();
+		config.setProperty("network_path", networkPath);
+		config.setProperty("days", Integer.toString(days));
+		config.setProperty("stationality", "1");
+		config.setProperty("alpha_value", "1.0");
+		config.setProperty("buy_probability", "1.0");
+		config.setProperty("num_prods", Integer.toString(numProducts));
+		config.setProperty("random_model", "false");
+		config.setProperty("extended_model", "true");
+		config.setProperty("Bi", "0.4");
+		config.setProperty("Umin", "0.2");
+		config.setProperty("Unct", "0.8");
+		config.setProperty("prod_pref", "0.6");
+		config.setProperty("prod_visibility", Integer.toString(visibility));
+		config.setProperty("awareness_value", "0.8");
+		config.setProperty("awareness_decay_value", "0.1");
+		config.setProperty("optimize", "true");
+		config.setProperty("targets_ratio", "0.1");
+		config.setProperty("multiobjective", "false");
+		config.setProperty("monte_carlos", "1");
+
+		File file = File.createTempFile("tget-benchmark", ".properties");
+		file.deleteOnExit();
+		try (FileOutputStream out = new FileOutputStream(file)){
+			config.store(out, "Benchmark configuration");
+		}
+		return file.getPath();
+	}
+
+	private static void writeSmallWorld(File file, int nodes) throws IOException{
+		Random random = new Random(SYNTHETIC_SEED);
+		Set<Long> edges = new HashSet<>();
+		File partial = new File(file.getPath() + ".part");
+
+		try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(partial), StandardCharsets.UTF_8))){
+			out.write("DGS004\n");
+			out.write("null 0 0\n");
+			for(int node = 0; node < nodes; node++){
+				out.write("an \"" + node + "\"\n");
+			}
+			for(int node = 0; node < nodes; node++){
+				for(int k = 1; k <= LATTICE_NEIGHBOURS; k++){
+					int target = (node + k) % nodes;
+					if (random.nextDouble() < REWIRING_PROB)
+						target = random.nextInt(nodes);
+					long key = (long) Math.min(node, target) * nodes + Math.max(node, target);
+					if (target != node && edges.add(key)){
+						out.write("ae \"" + node + "_" + target + "\" \"" + node + "\" \"" + target + "\"\n");
+					}
+				}
+			}
+		}
+		if (!partial.renameTo(file))
+			throw new IOException("Unable to write the network " + file.getPath());
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2017 Juan Francisco Robles Fuentes.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package model;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import benchmarks.BenchmarkNetworks;
+
+/**
+ * @author Juan Francisco Robles Fuentes.
+ */
+
+/**
+ * MarketBenchmark class.
+ *
+ * Benchmarks of the hot paths of the market simulation:
+ *   -> setUpModel - Initialization of the products and customers.
+ *   -> step - A replica of run(double []) with a single step (set up, seed selection and one
+ *   step of word of mouth, decay, consumption and metrics).
+ *   -> calculateutilsanduncts - Full calculation of the expected utilities and uncertainties,
+ *   with the kernel of each visibility chosen once per product.
+ *   -> calculateutilsandunctsByLabel - The same calculation comparing the label of the
+ *   visibility for every customer and product (the former String dispatch), as reference.
+ *   -> wordOfMouth and decayStage - Awareness processes of the extended model.
+ *   -> selectSeeds - Seed selection from the network metrics.
+ *
+ * The benchmark lives in the model package so it can reach the package-private stages of
+ * the market. The three visibilities of the products (low, normal and high) and both update
+ * modes (sequential and synchronous) are measured. The state is reset before each iteration,
+ * so the processes which change it (word of mouth, decay) run over a market which evolves
+ * during the iteration.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx8g"})
+public class MarketBenchmark {
+
+	@Param({"SF-1024nodes.gexf", "SW-1024nodes.gexf", "Regular-1024nodes.gexf", "ER-1024nodes.dgs",
+		"boston_airbnb.dgs", "synthetic-1000000"})
+	public String network;
+
+	@Param({"0", "1", "2"})
+	public int visibility;
+
+	@Param({"8"})
+	public int numProducts;
+
+	@Param({"false", "true"})
+	public boolean synchronous;
+
+	private Market market;
+	private double [] metricweights;
+	private double [] [] utilities;
+	private double [] [] uncertainties;
+
+	@Setup(Level.Trial)
+	public void setUpMarket() throws IOException{
+		String path = BenchmarkNetworks.getNetworkPath(this.network);
+		this.market = new Market(BenchmarkNetworks.writeConfiguration(path, 2, this.numProducts, this.visibility));
+		this.market.setSynchronous(this.synchronous, Runtime.getRuntime().availableProcessors());
+		// Weights of degree, two steps and clustering coefficient and 5% of seeds.
+		this.metricweights = new double [] {0.5, 0.3, 0.2, Math.max(1, this.market.getNumCustomers() / 20)};
+		this.utilities = new double [this.market.getNumCustomers()] [this.market.getProducts().length];
+		this.uncertainties = new double [this.market.getNumCustomers()] [this.market.getProducts().length];
+	}
+
+	@Setup(Level.Iteration)
+	public void setUpIteration(){
+		this.market.setUpRandomGenerator(0);
+		this.market.setUpModel();
+		this.market.initializeSocialCounts();
+	}
+
+	@Benchmark
+	public CustomerState setUpModel(){
+		this.market.setUpModel();
+		return this.market.getCustomerState();
+	}
+
+	@Benchmark
+	public double [] [] step(){
+		return this.market.runReplica(0, this.metricweights);
+	}
+
+	@Benchmark
+	public void calculateutilsanduncts(Blackhole bh){
+		this.market.calculateutilsanduncts(this.utilities, this.uncertainties);
+		bh.consume(this.utilities);
+		bh.consume(this.uncertainties);
+	}
+
+	@Benchmark
+	public void calculateutilsandunctsByLabel(Blackhole bh){
+		this.market.calculateutilsandunctsByLabel(this.utilities, this.uncertainties);
+		bh.consume(this.utilities);
+		bh.consume(this.uncertainties);
+	}
+
+	@Benchmark
+	public long [] wordOfMouthAndDecay(){
+		this.market.wordOfMouth();
+		this.market.decayStage();
+		return this.market.getCustomerState().getAwareness();
+	}
+
+	@Benchmark
+	public int [] selectSeeds(){
+		return this.market.selectSeeds(this.metricweights);
+	}
+}
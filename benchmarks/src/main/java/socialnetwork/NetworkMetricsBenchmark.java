@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2017 Juan Francisco Robles Fuentes.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package socialnetwork;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import benchmarks.BenchmarkNetworks;
+
+/**
+ * @author Juan Francisco Robles Fuentes.
+ */
+
+/**
+ * NetworkMetricsBenchmark class.
+ *
+ * Benchmark of the calculation of the network metrics used to select the seeds
+ * (@see socialnetwork.NetworkMetrics) over the shipped networks and a synthetic one. The
+ * metrics are calculated on demand, so the benchmark requests the ones used by the seed
+ * selection. The
+ * metrics are lazy, so the benchmark requests the ones used by the seed selection.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx8g"})
+public class NetworkMetricsBenchmark {
+
+	@Param({"SF-1024nodes.gexf", "SW-1024nodes.gexf", "Regular-1024nodes.gexf", "ER-1024nodes.dgs",
+		"boston_airbnb.dgs", "synthetic-1000000"})
+	public String network;
+
+	private SocialNetwork sn;
+
+	@Setup(Level.Trial)
+	public void loadNetwork() throws IOException{
+		this.sn = new SocialNetwork(BenchmarkNetworks.getNetworkPath(this.network));
+	}
+
+	@Benchmark
+	public NetworkMetrics networkMetrics(){
+		NetworkMetrics nm = new NetworkMetrics(this.sn);
+		nm.calculateMetrics(NetworkMetrics.Metric.DEGREE, NetworkMetrics.Metric.TWO_STEPS,
+				NetworkMetrics.Metric.CLUSTERING);
+		return nm;
+	}
+}
@@ -90,6 +90,51 @@ public class Reader {
     	return Float.parseFloat(parameters.getProperty(ParameterName));
     }
     
+    /**
+     * Optional parameters. If the parameter is not defined in the configuration 
+     * file the given default value is returned.
+     */
+    
+    public boolean hasParameter(String ParameterName) {
+    	return parameters.getProperty(ParameterName) != null;
+    }
+    
+    public int getParameterInteger(String ParameterName, int defaultValue) {
+    	if (!hasParameter(ParameterName))
+    		return defaultValue;
+    	return Integer.parseInt(parameters.getProperty(ParameterName).trim());
+    }
+    
+    public boolean getParameterBoolean(String ParameterName, boolean defaultValue) {
+    	if (!hasParameter(ParameterName))
+    		return defaultValue;
+    	return Boolean.parseBoolean(parameters.getProperty(ParameterName).trim());
+    }
+    
+    public double getParameterDouble(String ParameterName, double defaultValue) {
+    	if (!hasParameter(ParameterName))
+    		return defaultValue;
+    	return Double.parseDouble(parameters.getProperty(ParameterName).trim());
+    }
+    
+    /**
+     * Hash of all the parameters (names and values), which does not depend on their order 
+     * in the file.
+     * @return Hash of the parameters.
+     */
+    public long getContentHash() {
+    	long hash = 0L;
+    	for (String name: parameters.stringPropertyNames()) {
+    		String entry = name.trim() + "=" + parameters.getProperty(name).trim();
+    		long h = 1125899906842597L;
+    		for (int i = 0; i < entry.length(); i++) {
+    			h = 31 * h + entry.charAt(i);
+    		}
+    		hash += h ^ (h >>> 29);
+    	}
+    	return hash;
+    }
+    
     public double[] getParameterDoubleArray(String ParameterName) {
     	String[] tmpStr;
     	double[] tmpDouble;
@@ -17,7 +17,7 @@
 
 package model;
 
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * @author Juan Francisco Robles Fuentes.
@@ -51,143 +51,134 @@ import java.util.List;
  *   it with other customers in the extended Consumat. In the other hand, if this value is true, 
  *   the customer can share its perceptions about the product with their friends.
  *    
+ * The values are not stored in the object: a Customer is a view over one row of the 
+ * columnar store of the market (@see model.CustomerState). Arrays returned by the getters
+ * are copies of the row.
  */
 
 public class Customer {
 	
-	private int identifier;
-	
-	private int [] contacts;
-	private int purchase;
-	private double socialpreference;
-	private double umin;
-	private double unct;
-	private double aw;
-	private double awd;
-	private double [] preferences;
-	private boolean [] awareness;
-	boolean seed = false;
+	private final CustomerState state;
+	private final int identifier;
 	
 	/* ----------------- Constructors -------------------- */
 	
-	public Customer(int id){
+	/**
+	 * Creates a view over the row of the given customer in the market state.
+	 * @param state Columnar store with the state of every customer (@see model.CustomerState).
+	 * @param id Customer identifier.
+	 */
+	public Customer(CustomerState state, int id){
+		this.state = state;
 		this.identifier = id;
-		this.purchase = -1;
-		this.contacts = new int [0];
-		this.preferences = null;
-		this.awareness = null;
 	}
 	
 	/* ---------------- Methods -------------------------- */
 	
-	public void setIdentifier(int id){
-		this.identifier = id;
-	}
-	
 	public void setPurchase(int pchs){
-		this.purchase = pchs;
-	}
-	
-	public void setContacts(List<Integer> c){
-		this.contacts = new int [c.size()];
-		for (int cont = 0; cont < c.size(); cont++) {
-			contacts[cont] = c.get(cont);
-		}
+		this.state.setPurchase(this.identifier, pchs);
 	}
 	
 	public void setSocialPreference(double sp){
-		this.socialpreference = sp;
+		this.state.setSocialPreference(this.identifier, sp);
 	}
 	
 	public void setUmin(double um){
-		this.umin = um;
+		this.state.setUmin(this.identifier, um);
 	}
 	
 	public void setUnct(double un){
-		this.unct = un;
+		this.state.setUnct(this.identifier, un);
 	}
 	
 	public void setAw(double awr){
-		this.aw = awr;
+		this.state.setAw(this.identifier, awr);
 	}
 	
 	public void setDecay(double awrd){
-		this.awd = awrd;
+		this.state.setDecay(this.identifier, awrd);
 	}
 	
 	public void setPreferences(double [] ps){
-		this.preferences = new double [ps.length];
-		System.arraycopy(ps, 0, this.preferences, 0, this.preferences.length);
+		System.arraycopy(ps, 0, this.state.getPreferences(), this.identifier * this.state.getNumProducts(), 
+				this.state.getNumProducts());
 	}
 	
 	public void setPreference(int pid, double pref){
-		this.preferences[pid] = pref;
+		this.state.setPreference(this.identifier, pid, pref);
 	}
 	
 	public void setAwareness(boolean [] aw){
-		this.awareness = new boolean [aw.length];
-		System.arraycopy(aw, 0, this.awareness, 0, this.awareness.length);
+		for(int p = 0; p < this.state.getNumProducts(); p++){
+			this.state.setProductAwareness(this.identifier, p, aw[p]);
+		}
 	}
 	
 	public void setProductAwareness(int pid, boolean aware){
-		this.awareness [pid] = aware;
+		this.state.setProductAwareness(this.identifier, pid, aware);
 	}
 	public void setSeed(){
-		this.seed = true;
+		this.state.setSeed(this.identifier);
 	}
 	public int getIdentifier(){
 		return this.identifier;
 	}
 	
 	public int getPurchase(){
-		return this.purchase;
+		return this.state.getPurchase(this.identifier);
 	}
 	
 	public int [] getContacts(){
-		return this.contacts;
+		int start = this.state.getContactOffsets()[this.identifier];
+		return Arrays.copyOfRange(this.state.getContacts(), start, start + this.state.getNumContacts(this.identifier));
 	}
 	
 	public int getContactId(int pos) {
-		return this.contacts[pos];
+		return this.state.getContactId(this.identifier, pos);
 	}
 	
 	public double getSocialPreference(){
-		return this.socialpreference;
+		return this.state.getSocialPreference(this.identifier);
 	}
 	
 	public double getUmin(){
-		return this.umin;
+		return this.state.getUmin(this.identifier);
 	}
 	
 	public double getUnct(){
-		return this.unct;
+		return this.state.getUnct(this.identifier);
 	}
 	
 	public double getAw(){
-		return this.aw;
+		return this.state.getAw(this.identifier);
 	}
 	
 	public double getDecay(){
-		return this.awd;
+		return this.state.getDecay(this.identifier);
 	}
 	
 	public double [] getPreferences(){
-		return this.preferences;
+		int start = this.identifier * this.state.getNumProducts();
+		return Arrays.copyOfRange(this.state.getPreferences(), start, start + this.state.getNumProducts());
 	}
 	
 	public double getProductPreference(int pid){
-		return this.preferences[pid];
+		return this.state.getProductPreference(this.identifier, pid);
 	}
 	
 	public boolean [] getAwareness(){
-		return this.awareness;
+		boolean [] aw = new boolean [this.state.getNumProducts()];
+		for(int p = 0; p < aw.length; p++){
+			aw[p] = this.state.getProductAwareness(this.identifier, p);
+		}
+		return aw;
 	}
 	
 	public boolean getProductAwareness(int pid){
-		return this.awareness[pid];
+		return this.state.getProductAwareness(this.identifier, pid);
 	}
 	public boolean isSeed(){
-		return this.seed;
+		return this.state.isSeed(this.identifier);
 	}
 	public void displayAwareness(){
 		System.out.println("| The customer have awareness about products: ");
@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2017 Juan Francisco Robles Fuentes.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package model;
+
+import java.util.Arrays;
+
+/**
+ * @author Juan Francisco Robles Fuentes.
+ */
+
+/**
+ * CustomerState class.
+ *
+ * Columnar (structure of arrays) store with the state of every customer of the market.
+ * Instead of keeping one object per agent, each attribute of the agents is stored in a
+ * flat primitive array indexed by the customer identifier, so the simulation loops walk
+ * contiguous memory:
+ *
+ *   -> purchase - Product being consumed by each customer.
+ *   -> seed - True if the customer has been selected as seed of the viral marketing campaign.
+ *   -> socialPreference, umin, unct, aw, awd - Personal parameters of each customer
+ *   (@see model.Customer).
+ *   -> preferences - Product preferences stored in row-major order, that is, the preference
+ *   of customer c for product p is stored in position c * numProducts + p.
+ *   -> awareness - Packed bitset with the awareness of each customer. Each customer owns
+ *   awarenessWords consecutive longs and the awareness of product p is the bit p % 64 of
+ *   the word p / 64 of its row.
+ *   -> nextAwareness - Second awareness buffer for the synchronous update mode, where a step
+ *   reads the awareness of the customers from one buffer and writes it into the other one.
+ *   It is allocated the first time it is requested.
+ *   -> contactOffsets, contacts - Contacts of the customers in compressed sparse row format.
+ *   The contacts of customer c are stored in contacts[contactOffsets[c] .. contactOffsets[c + 1]).
+ */
+
+public class CustomerState {
+
+	private final int numCustomers;
+	private final int numProducts;
+	private final int awarenessWords;
+
+	private final int [] purchase;
+	private final boolean [] seed;
+	private final double [] socialPreference;
+	private final double [] umin;
+	private final double [] unct;
+	private final double [] aw;
+	private final double [] awd;
+	private final double [] preferences;
+	private long [] awareness;
+	private long [] nextAwareness;
+
+	private int [] contactOffsets;
+	private int [] contacts;
+
+	/* ----------------- Constructors -------------------- */
+
+	public CustomerState(int numCustomers, int numProducts){
+		this.numCustomers = numCustomers;
+		this.numProducts = numProducts;
+		this.awarenessWords = (numProducts + Long.SIZE - 1) / Long.SIZE;
+
+		this.purchase = new int [numCustomers];
+		this.seed = new boolean [numCustomers];
+		this.socialPreference = new double [numCustomers];
+		this.umin = new double [numCustomers];
+		this.unct = new double [numCustomers];
+		this.aw = new double [numCustomers];
+		this.awd = new double [numCustomers];
+		this.preferences = new double [numCustomers * numProducts];
+		this.awareness = new long [numCustomers * this.awarenessWords];
+
+		this.contactOffsets = new int [numCustomers + 1];
+		this.contacts = new int [0];
+
+		Arrays.fill(this.purchase, -1);
+	}
+
+	/* ---------------- Methods -------------------------- */
+
+	/**
+	 * Clears the seeds and awareness of all the customers so the store can be
+	 * initialized again for a new simulation. Contacts are kept.
+	 */
+	public void reset(){
+		Arrays.fill(this.purchase, -1);
+		Arrays.fill(this.seed, false);
+		Arrays.fill(this.awareness, 0L);
+	}
+
+	public void setContacts(int [] offsets, int [] targets){
+		this.contactOffsets = offsets;
+		this.contacts = targets;
+	}
+
+	public void setPurchase(int cid, int pchs){
+		this.purchase[cid] = pchs;
+	}
+
+	public void setSeed(int cid){
+		this.seed[cid] = true;
+	}
+
+	public void setSocialPreference(int cid, double sp){
+		this.socialPreference[cid] = sp;
+	}
+
+	public void setUmin(int cid, double um){
+		this.umin[cid] = um;
+	}
+
+	public void setUnct(int cid, double un){
+		this.unct[cid] = un;
+	}
+
+	public void setAw(int cid, double awr){
+		this.aw[cid] = awr;
+	}
+
+	public void setDecay(int cid, double awrd){
+		this.awd[cid] = awrd;
+	}
+
+	public void setPreference(int cid, int pid, double pref){
+		this.preferences[cid * this.numProducts + pid] = pref;
+	}
+
+	public void setProductAwareness(int cid, int pid, boolean aware){
+		int word = cid * this.awarenessWords + (pid >>> 6);
+		if (aware)
+			this.awareness[word] |= 1L << pid;
+		else
+			this.awareness[word] &= ~(1L << pid);
+	}
+
+	public int getNumCustomers(){
+		return this.numCustomers;
+	}
+
+	public int getNumProducts(){
+		return this.numProducts;
+	}
+
+	public int getAwarenessWords(){
+		return this.awarenessWords;
+	}
+
+	public int getPurchase(int cid){
+		return this.purchase[cid];
+	}
+
+	public boolean isSeed(int cid){
+		return this.seed[cid];
+	}
+
+	public double getSocialPreference(int cid){
+		return this.socialPreference[cid];
+	}
+
+	public double getUmin(int cid){
+		return this.umin[cid];
+	}
+
+	public double getUnct(int cid){
+		return this.unct[cid];
+	}
+
+	public double getAw(int cid){
+		return this.aw[cid];
+	}
+
+	public double getDecay(int cid){
+		return this.awd[cid];
+	}
+
+	public double getProductPreference(int cid, int pid){
+		return this.preferences[cid * this.numProducts + pid];
+	}
+
+	public boolean getProductAwareness(int cid, int pid){
+		return (this.awareness[cid * this.awarenessWords + (pid >>> 6)] & (1L << pid)) != 0L;
+	}
+
+	/**
+	 * Counts the customers aware of each product. The awareness words of all the customers
+	 * are added into bit-sliced counters (bit j of the counter of each product of the word is
+	 * stored in planes[j]), so the cost depends on the number of customers and words but not
+	 * on the number of aware products.
+	 * @return Number of customers aware of each product.
+	 */
+	public int [] countAwareness(){
+		int [] counts = new int [this.numProducts];
+		long [] planes = new long [Integer.SIZE - Integer.numberOfLeadingZeros(this.numCustomers) + 1];
+		for(int w = 0; w < this.awarenessWords; w++){
+			Arrays.fill(planes, 0L);
+			for(int c = 0; c < this.numCustomers; c++){
+				long carry = this.awareness[c * this.awarenessWords + w];
+				for(int j = 0; carry != 0L; j++){
+					long next = planes[j] & carry;
+					planes[j] ^= carry;
+					carry = next;
+				}
+			}
+			for(int j = 0; j < planes.length; j++){
+				long plane = planes[j];
+				while (plane != 0L){
+					counts[w * Long.SIZE + Long.numberOfTrailingZeros(plane)] += 1 << j;
+					plane &= plane - 1;
+				}
+			}
+		}
+		return counts;
+	}
+
+	public int getNumContacts(int cid){
+		return this.contactOffsets[cid + 1] - this.contactOffsets[cid];
+	}
+
+	public int getContactId(int cid, int pos){
+		return this.contacts[this.contactOffsets[cid] + pos];
+	}
+
+	/* ------- Raw columns (for the simulation loops) ------- */
+
+	public int [] getPurchases(){
+		return this.purchase;
+	}
+
+	public boolean [] getSeeds(){
+		return this.seed;
+	}
+
+	public double [] getSocialPreferences(){
+		return this.socialPreference;
+	}
+
+	public double [] getUmins(){
+		return this.umin;
+	}
+
+	public double [] getUncts(){
+		return this.unct;
+	}
+
+	public double [] getAws(){
+		return this.aw;
+	}
+
+	public double [] getDecays(){
+		return this.awd;
+	}
+
+	public double [] getPreferences(){
+		return this.preferences;
+	}
+
+	public long [] getAwareness(){
+		return this.awareness;
+	}
+
+	/**
+	 * Get the second awareness buffer (same layout as the awareness).
+	 * @return Next awareness buffer.
+	 */
+	public long [] getNextAwareness(){
+		if (this.nextAwareness == null)
+			this.nextAwareness = new long [this.awareness.length];
+		return this.nextAwareness;
+	}
+
+	/**
+	 * Swaps the awareness buffers, so the next awareness becomes the current one.
+	 */
+	public void swapAwareness(){
+		long [] current = this.awareness;
+		this.awareness = this.getNextAwareness();
+		this.nextAwareness = current;
+	}
+
+	public int [] getContactOffsets(){
+		return this.contactOffsets;
+	}
+
+	public int [] getContacts(){
+		return this.contacts;
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2017 Juan Francisco Robles Fuentes.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package model;
+
+/**
+ * @author Juan Francisco Robles Fuentes.
+ */
+
+/**
+ * DirtyCustomers class.
+ *
+ * Set of customers whose neighbourhood changed since the last time their expected
+ * utilities and uncertainties were calculated. Marking a customer and walking the set
+ * are O(1) per customer, and the set is emptied in time proportional to its size.
+ */
+
+public class DirtyCustomers {
+
+	private final boolean [] marked;
+	private final int [] list;
+	private int size;
+
+	/* ----------------- Constructors -------------------- */
+
+	public DirtyCustomers(int numCustomers){
+		this.marked = new boolean [numCustomers];
+		this.list = new int [numCustomers];
+		this.size = 0;
+	}
+
+	/* ---------------- Methods -------------------------- */
+
+	public void mark(int cid){
+		if (!this.marked[cid]){
+			this.marked[cid] = true;
+			this.list[this.size++] = cid;
+		}
+	}
+
+	public boolean isMarked(int cid){
+		return this.marked[cid];
+	}
+
+	public int size(){
+		return this.size;
+	}
+
+	/**
+	 * Get a customer of the set.
+	 * @param pos Position in the set (0 .. size - 1), in marking order.
+	 * @return Customer identifier.
+	 */
+	public int get(int pos){
+		return this.list[pos];
+	}
+
+	public void clear(){
+		for(int pos = 0; pos < this.size; pos++){
+			this.marked[this.list[pos]] = false;
+		}
+		this.size = 0;
+	}
+}
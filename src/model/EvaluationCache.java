@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2017 Juan Francisco Robles Fuentes.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package model;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @author Juan Francisco Robles Fuentes.
+ */
+
+/**
+ * EvaluationCache class.
+ *
+ * Cache of the NPV of the viral marketing campaigns already simulated. Each Monte Carlo
+ * replica uses its own seed (@see util.SeedContainer), so the simulation of a campaign is
+ * deterministic and only depends on the set of seed customers and the configuration of
+ * the market. Different weights of the network metrics which select the same seeds (common
+ * near the convergence of the optimization algorithms) get the cached NPV instead of being
+ * simulated again.
+ *
+ * The NPV of each replica is also kept for the campaigns evaluated by ranges of replicas
+ * (@see model.Market.runReplicas), as in the racing of the populations of the optimization
+ * algorithms, so a campaign raced again only simulates the replicas it did not reach before.
+ *
+ * The cache keeps a bounded number of campaigns, evicting the least recently used one, and
+ * may be shared by several markets evaluating campaigns from different threads.
+ */
+
+public class EvaluationCache {
+
+	private final Map<Key, double []> entries;
+	private final Map<Key, double [] []> replicas; // NPV of each replica (null if not simulated).
+	private long hits;
+	private long misses;
+
+	/* ----------------- Constructors -------------------- */
+
+	/**
+	 * @param capacity Maximum number of campaigns kept.
+	 */
+	public EvaluationCache(final int capacity){
+		this.entries = new LinkedHashMap<Key, double []>(16, 0.75f, true){
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, double []> eldest){
+				return this.size() > capacity;
+			}
+		};
+		this.replicas = new LinkedHashMap<Key, double [] []>(16, 0.75f, true){
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, double [] []> eldest){
+				return this.size() > capacity;
+			}
+		};
+	}
+
+	/* ---------------- Methods -------------------------- */
+
+	/**
+	 * Get the NPV of a campaign.
+	 * @param seeds Seeds of the campaign (in any order).
+	 * @param configuration Hash of the configuration of the market.
+	 * @return Copy of the NPV, or null if the campaign is not cached.
+	 */
+	public synchronized double [] get(int [] seeds, long configuration){
+		double [] npv = this.entries.get(new Key(seeds, configuration));
+		if (npv == null){
+			this.misses++;
+			return null;
+		}
+		this.hits++;
+		return npv.clone();
+	}
+
+	/**
+	 * Keeps the NPV of a campaign.
+	 * @param seeds Seeds of the campaign (in any order).
+	 * @param configuration Hash of the configuration of the market.
+	 * @param npv NPV.
+	 */
+	public synchronized void put(int [] seeds, long configuration, double [] npv){
+		this.entries.put(new Key(seeds, configuration), npv.clone());
+	}
+
+	/**
+	 * Get the NPV of a range of replicas of a campaign.
+	 * @param seeds Seeds of the campaign (in any order).
+	 * @param configuration Hash of the configuration of the market.
+	 * @param from First replica.
+	 * @param to Last replica (exclusive).
+	 * @return Copy of the NPV of each replica, or null if any of them is not cached.
+	 */
+	public synchronized double [] [] getReplicas(int [] seeds, long configuration, int from, int to){
+		double [] [] stored = this.replicas.get(new Key(seeds, configuration));
+		if (stored == null || stored.length < to){
+			this.misses++;
+			return null;
+		}
+		double [] [] npv = new double [to - from] [];
+		for(int mc = from; mc < to; mc++){
+			if (stored[mc] == null){
+				this.misses++;
+				return null;
+			}
+			npv[mc - from] = stored[mc].clone();
+		}
+		this.hits++;
+		return npv;
+	}
+
+	/**
+	 * Keeps the NPV of a range of replicas of a campaign, with the replicas already cached.
+	 * @param seeds Seeds of the campaign (in any order).
+	 * @param configuration Hash of the configuration of the market.
+	 * @param from First replica.
+	 * @param npv NPV of each replica of the range.
+	 */
+	public synchronized void putReplicas(int [] seeds, long configuration, int from, double [] [] npv){
+		Key key = new Key(seeds, configuration);
+		double [] [] stored = this.replicas.get(key);
+		if (stored == null)
+			stored = new double [from + npv.length] [];
+		else if (stored.length < from + npv.length)
+			stored = Arrays.copyOf(stored, from + npv.length);
+		for(int mc = 0; mc < npv.length; mc++){
+			stored[from + mc] = npv[mc].clone();
+		}
+		this.replicas.put(key, stored);
+	}
+
+	public synchronized void clear(){
+		this.entries.clear();
+		this.replicas.clear();
+	}
+
+	public synchronized int size(){
+		return this.entries.size();
+	}
+
+	public synchronized long getHits(){
+		return this.hits;
+	}
+
+	public synchronized long getMisses(){
+		return this.misses;
+	}
+
+	/**
+	 * Canonical key of a campaign: its sorted seeds and the configuration.
+	 */
+	private static final class Key {
+		private final int [] seeds;
+		private final long configuration;
+		private final int hash;
+
+		Key(int [] seeds, long configuration){
+			this.seeds = seeds.clone();
+			Arrays.sort(this.seeds);
+			this.configuration = configuration;
+			this.hash = 31 * Arrays.hashCode(this.seeds) + Long.hashCode(configuration);
+		}
+
+		@Override
+		public int hashCode(){
+			return this.hash;
+		}
+
+		@Override
+		public boolean equals(Object o){
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return this.configuration == k.configuration && Arrays.equals(this.seeds, k.seeds);
+		}
+	}
+}
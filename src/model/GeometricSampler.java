@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2017 Juan Francisco Robles Fuentes.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package model;
+
+import util.random.Randomizer;
+import util.random.RandomizerUtils;
+
+/**
+ * @author Juan Francisco Robles Fuentes.
+ */
+
+/**
+ * GeometricSampler class.
+ *
+ * Sampler of a sequence of Bernoulli trials which jumps from a success to the next one.
+ * Instead of drawing a random number per trial, the number of failures before the next
+ * success is drawn from a geometric distribution (@see util.random.RandomizerUtils.
+ * computeGeometricFails), so a sequence of n trials with probability p only needs about
+ * n * p random numbers.
+ *
+ * The trials are given as the bits of words (i.e. the products of an awareness word) and
+ * the sequence continues from one word to the next one, so the whole (customer, product)
+ * space of a process is sampled as a single sequence. Trials with a probability q lower than
+ * the probability p of the sampler are thinned: a success of the sequence is accepted with
+ * probability q / p.
+ */
+
+public class GeometricSampler {
+
+	private final Randomizer r;
+	private final double p;
+	private long fails; // Failures left before the next success.
+
+	/* ----------------- Constructors -------------------- */
+
+	/**
+	 * @param r Random number generator.
+	 * @param p Probability of success of the trials (the highest one if it changes).
+	 */
+	public GeometricSampler(Randomizer r, double p){
+		this.r = r;
+		this.p = p;
+		this.fails = this.nextFails();
+	}
+
+	/* ---------------- Methods -------------------------- */
+
+	private long nextFails(){
+		if (this.p >= 1.0)
+			return 0L;
+		if (this.p <= 0.0)
+			return Long.MAX_VALUE;
+		// computeGeometricFails gives the number of the trial of the first success (>= 1).
+		double trials = RandomizerUtils.computeGeometricFails(this.p, this.r);
+		if (Double.isNaN(trials) || trials >= Long.MAX_VALUE)
+			return Long.MAX_VALUE;
+		return Math.max(0L, (long) trials - 1L);
+	}
+
+	/**
+	 * Samples the next trials of the sequence with the probability of the sampler.
+	 * @param trials Trials (bits), taken in bit order.
+	 * @return Trials which succeed.
+	 */
+	public long sample(long trials){
+		long selected = 0L;
+		int remaining = Long.bitCount(trials);
+		while (this.fails < remaining){
+			// The next success is in this word: skip the failures and take it.
+			for(long f = 0; f < this.fails; f++){
+				trials &= trials - 1;
+			}
+			long bit = Long.lowestOneBit(trials);
+			selected |= bit;
+			trials ^= bit;
+			remaining -= (int) this.fails + 1;
+			this.fails = this.nextFails();
+		}
+		this.fails -= remaining;
+		return selected;
+	}
+
+	/**
+	 * Samples the next trials of the sequence with a probability lower than or equal to the
+	 * probability of the sampler.
+	 * @param trials Trials (bits), taken in bit order.
+	 * @param q Probability of success of the trials.
+	 * @return Trials which succeed.
+	 */
+	public long sample(long trials, double q){
+		long selected = this.sample(trials);
+		if (q >= this.p || selected == 0L)
+			return selected;
+		long accepted = 0L;
+		double ratio = q / this.p;
+		while (selected != 0L){
+			long bit = Long.lowestOneBit(selected);
+			if (this.r.nextDouble() < ratio)
+				accepted |= bit;
+			selected ^= bit;
+		}
+		return accepted;
+	}
+}
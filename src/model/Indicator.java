@@ -17,7 +17,7 @@
 
 package model;
 
-import model.Customer;
+import java.util.Arrays;
 
 /**
  * @author Juan Francisco Robles Fuentes.
@@ -35,6 +35,11 @@ import model.Customer;
  *   -> turbulence - is the average change of product choice during the simulation by all agents. 
  *      Thus turbulence 1.0 means that all agents change their choice each period, and 0.0 means 
  *      that no agent changes its choice after its initial choice.
+ *      
+ * The market shares are kept in live counters: they are counted once when a simulation starts 
+ * (initializeShares) and afterwards the market reports every purchase change (changePurchase), 
+ * so the metrics of a step do not need to scan the customers. The counters of a step assume 
+ * that every customer changes its purchase at most once per step.
  */
 public class Indicator {
 	
@@ -46,6 +51,72 @@ public class Indicator {
 	private double [] heuristicsuse = new double [0];
 	private double [] awarenessRatio = new double [0];
 	private double meancustomers = 0.0;
+	// Live counters.
+	private int [] shares = new int [0]; // Customers consuming each product.
+	private int numCustomers = 0;
+	private int numSeeds = 0;
+	private int trackedProduct = -1; // Product whose new adopters are counted.
+	private int stepChanges = 0; // Customers who changed their purchase in the current step.
+	private int stepAdopters = 0; // Non seed customers who changed to the tracked product.
+	private int [] stepHeuristics = new int [4]; // Use of the heuristics in the current step.
+	
+	/**
+	 * Counts the market shares and seeds of the customers and resets the step counters.
+	 * @param cs Customers.
+	 * @param tracked Product whose new adopters are counted (the optimized one).
+	 */
+	public void initializeShares(CustomerState cs, int tracked){
+		this.shares = new int [cs.getNumProducts()];
+		this.numCustomers = cs.getNumCustomers();
+		this.trackedProduct = tracked;
+		for(int purchase: cs.getPurchases()){
+			this.shares[purchase] += 1;
+		}
+		this.numSeeds = 0;
+		for(boolean seed: cs.getSeeds()){
+			if (seed)
+				this.numSeeds += 1;
+		}
+		this.startStep();
+	}
+	
+	/**
+	 * Updates the market shares after a purchase change.
+	 * @param oldPurchase Product consumed before the change.
+	 * @param newPurchase Product consumed after the change.
+	 */
+	public void changePurchase(int oldPurchase, int newPurchase){
+		this.shares[oldPurchase] -= 1;
+		this.shares[newPurchase] += 1;
+		this.stepChanges += 1;
+		if (newPurchase == this.trackedProduct)
+			this.stepAdopters += 1;
+	}
+	
+	/**
+	 * Resets the counters of purchase changes of a step.
+	 */
+	public void startStep(){
+		this.stepChanges = 0;
+		this.stepAdopters = 0;
+		Arrays.fill(this.stepHeuristics, 0);
+	}
+	
+	public int [] getShares(){
+		return this.shares;
+	}
+	
+	public int getNumSeeds(){
+		return this.numSeeds;
+	}
+	
+	public int getStepAdopters(){
+		return this.stepAdopters;
+	}
+	
+	public int [] getStepHeuristics(){
+		return this.stepHeuristics;
+	}
 	
 	public void setExecutionTime(double t){
 		this.executiontime = t;
@@ -59,27 +130,42 @@ public class Indicator {
 		this.turbulence = t;
 	}
 	
-	public void setFinaBuys(Customer [] cs){
-		int [] buys = new int [cs[0].getPreferences().length];	
-		this.finalbuys = new int [buys.length];
-		
-		for(Customer c: cs){
-			buys[c.getPurchase()] += 1;
+	private static int [] countShares(CustomerState cs){
+		int [] buys = new int [cs.getNumProducts()];
+		for(int purchase: cs.getPurchases()){
+			buys[purchase] += 1;
 		}
-		
-		System.arraycopy(buys, 0, this.finalbuys, 0, buys.length);
+		return buys;
 	}
 	
-	public void setFinalBuyProb(Customer [] cs){
-		double [] buyprobs = new double [cs[0].getPreferences().length];
-		double totalsales = (double) cs.length;
-		
-		for(Customer c: cs){
-			buyprobs[c.getPurchase()] += 1.0;
-		}
+	public void setFinaBuys(CustomerState cs){
+		this.finalbuys = countShares(cs);
+	}
+	
+	/**
+	 * Sets the final buys from the live market shares.
+	 */
+	public void setFinaBuys(){
+		this.finalbuys = Arrays.copyOf(this.shares, this.shares.length);
+	}
+	
+	public void setFinalBuyProb(CustomerState cs){
+		this.setFinalBuyProb(countShares(cs), cs.getNumCustomers());
+	}
+	
+	/**
+	 * Sets the buy probabilities from the live market shares.
+	 */
+	public void setFinalBuyProb(){
+		this.setFinalBuyProb(this.shares, this.numCustomers);
+	}
+	
+	private void setFinalBuyProb(int [] buys, int numcustomers){
+		double [] buyprobs = new double [buys.length];
+		double totalsales = (double) numcustomers;
 		
 		for(int v = 0; v < buyprobs.length; v++){
-			buyprobs[v] /= totalsales;
+			buyprobs[v] = (double) buys[v] / totalsales;
 		}
 
 		if(this.finalbuyprob.length == 0){
@@ -94,6 +180,7 @@ public class Indicator {
 	}
 	
 	public void setHeuristicsUse(int [] hs){
+		this.stepHeuristics = Arrays.copyOf(hs, hs.length);
 		int total = 0;
 		for(Integer v: hs){
 			total += v;
@@ -113,17 +200,12 @@ public class Indicator {
 		}
 	}
 	
-	public void setAwarenessRatio(Customer [] cs){
-		this.awarenessRatio = new double [cs[0].getPreferences().length];
+	public void setAwarenessRatio(CustomerState cs){
+		this.awarenessRatio = new double [cs.getNumProducts()];
 		
-		for(Customer c: cs){
-			for(int prod = 0; prod < c.getAwareness().length; prod++){
-				if(c.getProductAwareness(prod))
-					this.awarenessRatio[prod] += 1.0;
-			}
-		}
+		int [] aware = cs.countAwareness();
 		for(int val = 0; val < this.awarenessRatio.length; val++){
-			this.awarenessRatio[val] /= (double) cs.length;
+			this.awarenessRatio[val] = (double) aware[val] / (double) cs.getNumCustomers();
 		}
 	}
 	public void setMeanCustomers(double cs){
@@ -164,22 +246,43 @@ public class Indicator {
 		return this.meancustomers;
 	}
 	
-	public double calculateGini(Customer [] customers){
-		// Calculate the products being consumed. 
-		int [] products = new int [customers[0].getPreferences().length];
-		int total = 0; // If in the future we need to deal with customers that 
-					   // not consume we need to count the consumed products one by one.
-		for(Customer c: customers){
-			products[c.getPurchase()] += 1;
-			total += 1; 
-		}
-		double gval = 0.0;
-		for(int po = 0; po < products.length; po++){
-			for(int pt = po+1; pt < products.length; pt++){
-				gval += (Math.abs(products[po] - products[pt])) / ((double)products.length * (double)total);
-			}
+	public double calculateGini(CustomerState customers){
+		return calculateGini(countShares(customers), customers.getNumCustomers());
+	}
+	
+	/**
+	 * Calculates the Gini coefficient from the live market shares.
+	 * @return Gini coefficient.
+	 */
+	public double calculateGini(){
+		return calculateGini(Arrays.copyOf(this.shares, this.shares.length), this.numCustomers);
+	}
+	
+	/**
+	 * The sum of the differences between every pair of products is obtained from the sorted 
+	 * shares: the k-th smallest share (from 0) is greater than or equal to k shares and smaller 
+	 * than or equal to P - 1 - k shares, so it adds (2k - P + 1) times its value. 
+	 * @param products Customers consuming each product (sorted in place).
+	 * @param total Number of customers.
+	 * @return Gini coefficient.
+	 */
+	private static double calculateGini(int [] products, int total){
+		// If in the future we need to deal with customers that not consume we need to 
+		// count the consumed products.
+		Arrays.sort(products);
+		long differences = 0;
+		for(int k = 0; k < products.length; k++){
+			differences += (long) products[k] * (2L * k - products.length + 1);
 		}
-		return gval;
+		return (double) differences / ((double) products.length * (double) total);
+	}
+	
+	/**
+	 * Calculates the turbulence of the current step from the live counters.
+	 * @return Ratio of customers who changed their purchase in the step.
+	 */
+	public double calculateTurbulence(){
+		return (double) this.stepChanges / (double) this.numCustomers;
 	}
 	
 	public double calculateTurbulence(int [] pchoices, int [] nchoices){
@@ -17,21 +17,35 @@
 
 package model;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import configuration.Reader;
+import socialnetwork.CSRGraph;
+import socialnetwork.NetworkMetrics.Metric;
 import socialnetwork.SocialNetwork;
+import util.RunningStatistics;
 import util.SeedContainer;
 import util.SynchronizedMersenneTwister;
+import util.TopK;
 import util.Util;
 import util.random.Randomizer;
 import util.random.RandomizerFactory;
 import util.random.RandomizerFactory.RandomizerAlgorithm;
+import util.random.RandomizerUtils;
+import util.random.XorShift128PlusFastPRNG;
 
 /**
  * @author Juan Francisco Robles Fuentes.
@@ -60,7 +74,11 @@ public class Market {
 	
 	// Attributes for the basic market model.
 	private SocialNetwork sn; // Social Network.
-	private Customer [] customers; // Market customers.
+	private CustomerState customers; // Market customers (columnar store).
+	private Customer [] customerViews; // Object views over the customers store.
+	private NeighbourCounts socialCounts; // Products consumed by the contacts of each customer.
+	private double [] logitWeights; // Scratch buffer for the logit weights of the heuristics.
+	private double [] imitationWeights; // Precomputed exp(b2 * k) for k contacts consuming a product.
 	private Product [] products; // Market products.
 	private double alpha;
 	private double b1;
@@ -78,6 +96,45 @@ public class Market {
 	private Indicator metric; 
 	private int numMC; 
 	private boolean randomSeedSelection = false; 
+	// Attributes for the parallel execution of the Monte Carlo replicas.
+	private boolean parallelMC = false;
+	private int mcThreads;
+	private ForkJoinPool mcPool;
+	private final Queue<Market> replicaWorkers = new ConcurrentLinkedQueue<>();
+	// Attributes for the synchronous update mode.
+	public static final int UPDATE_CHUNK = 1024; // Customers per chunk (and random stream).
+	private boolean synchronous = false;
+	private int updateThreads;
+	private ForkJoinPool updatePool;
+	private long streamSeed; // Seed of the random streams of the chunks.
+	private long streamPhase; // Number of chunked phases since the streams were seeded.
+	private int [] nextPurchases; // Purchases decided in the current step.
+	private long [] talkMasks; // Products each customer talks about in the current step.
+	// Sampling of the word of mouth and decay trials by geometric skips.
+	private boolean geometricSampling = false;
+	private double maxAw; // Highest word of mouth probability of the customers.
+	private double maxDecay; // Highest decay probability of the customers.
+	// Recording of the time series of the simulations (@see model.StepRecorder).
+	private StepRecorder.Output recordOutput; // Shared with the workers.
+	private StepRecorder recorder;
+	private int recordCapacity;
+	// Initial state of the replicas (@see model.ReplicaSnapshot), shared with the workers.
+	private boolean replicaSnapshots = false;
+	private Map<Integer, ReplicaSnapshot> snapshots = new ConcurrentHashMap<>();
+	// NPV of the campaigns already evaluated (@see model.EvaluationCache), shared with the workers.
+	private EvaluationCache evaluationCache;
+	// Adaptive number of Monte Carlo replicas, stopped by the confidence interval of the NPV.
+	private boolean adaptiveMC = false;
+	private int mcMinReplicas; // Replicas simulated before checking the interval.
+	private int mcBatch; // Replicas simulated between two checks.
+	private double mcTolerance; // Half-width of the interval relative to the mean NPV.
+	private double mcConfidence;
+	private int lastReplicas; // Replicas simulated in the last evaluation.
+	// Early stopping of the replicas once the market is stationary.
+	private boolean earlyStopping = false;
+	private int stationaryWindow; // Stationary steps before stopping.
+	private double stationaryTurbulence; // Maximum turbulence of a stationary step.
+	private double stationaryShare; // Maximum change of the share of the optimized product.
 	
 	/* -------------- Constructors ------------------- */
 	
@@ -85,13 +142,18 @@ public class Market {
 		// Loading social network from file.
 		configuration = new Reader(configfile);
 		sn = new SocialNetwork(this.configuration.getParameterString("network_path"));
+		if (this.configuration.getParameterBoolean("metrics_cache", false))
+			sn.enableMetricsCache();
 		// Initializing customers and products.
-		customers = new Customer[sn.getNumNodes()]; // The same number of customers as nodes in SN.
 		optimization = this.configuration.getParameterBoolean("optimize");
 		if (!this.toOptimize())
 			products = new Product[this.configuration.getParameterInteger("num_prods")];
 		else
 			products = new Product[this.configuration.getParameterInteger("num_prods") + 1];
+		// The same number of customers as nodes in SN.
+		customers = new CustomerState(sn.getNumNodes(), products.length);
+		this.setUpContacts();
+		socialCounts = new NeighbourCounts(customers);
 		// Initializing threshold.
 		alpha = this.configuration.getParameterDouble("alpha_value");
 		b1 = this.alpha / 2.0;
@@ -106,17 +168,114 @@ public class Market {
 		mo = this.configuration.getParameterBoolean("multiobjective");
 		metric = new Indicator();
 		numMC = this.configuration.getParameterInteger("monte_carlos");
-		
+		parallelMC = this.configuration.getParameterBoolean("parallel_monte_carlos", false);
+		mcThreads = this.configuration.getParameterInteger("monte_carlo_threads", Runtime.getRuntime().availableProcessors());
+		synchronous = this.configuration.getParameterBoolean("synchronous_updates", false);
+		updateThreads = this.configuration.getParameterInteger("update_threads", Runtime.getRuntime().availableProcessors());
+		geometricSampling = this.configuration.getParameterBoolean("geometric_sampling", false);
+		recordCapacity = this.configuration.getParameterInteger("record_buffer_steps", 512);
+		replicaSnapshots = this.configuration.getParameterBoolean("replica_snapshots", false);
+		this.setEvaluationCache(this.configuration.getParameterInteger("evaluation_cache_size", 0));
+		adaptiveMC = this.configuration.getParameterBoolean("adaptive_monte_carlos", false);
+		mcMinReplicas = this.configuration.getParameterInteger("adaptive_min_replicas", 3);
+		mcBatch = this.configuration.getParameterInteger("adaptive_batch", 2);
+		mcTolerance = this.configuration.getParameterDouble("adaptive_tolerance", 0.05);
+		mcConfidence = this.configuration.getParameterDouble("adaptive_confidence", 0.95);
+		earlyStopping = this.configuration.getParameterBoolean("early_stopping", false);
+		stationaryWindow = this.configuration.getParameterInteger("stationary_window", 30);
+		stationaryTurbulence = this.configuration.getParameterDouble("stationary_turbulence", 0.001);
+		stationaryShare = this.configuration.getParameterDouble("stationary_share", 0.001);
+		if (this.configuration.hasParameter("record_file")){
+			try {
+				this.startRecording(this.configuration.getParameterString("record_file").trim());
+			} catch (IOException ex) {
+				Logger.getLogger(Market.class.getName()).log(Level.SEVERE, null, ex);
+			}
+		}
+		// The seeds are selected from the adjacency snapshot and the network metrics,
+		// so the graph is released once they are built (@see SocialNetwork.releaseGraph).
+		if (this.toOptimize())
+			sn.releaseGraph();
+
 	}
 	
-	/* -------------- Methods -------------------- */
-	public void setCustomers(Customer [] cs){
-		this.customers = new Customer [cs.length];
-		System.arraycopy(cs, 0, this.customers, 0, this.customers.length);
+	/**
+	 * Creates a replica worker: a market which shares the configuration, the social network 
+	 * and the contacts of the given market but owns its customers, products, indicators and
+	 * random number generator, so it can simulate a Monte Carlo replica in its own thread.
+	 * @param template Market to copy.
+	 */
+	private Market(Market template){
+		sn = template.sn;
+		configuration = template.configuration;
+		optimization = template.optimization;
+		products = new Product[template.products.length];
+		customers = new CustomerState(template.getNumCustomers(), products.length);
+		customers.setContacts(template.customers.getContactOffsets(), template.customers.getContacts());
+		socialCounts = new NeighbourCounts(customers);
+		alpha = template.alpha;
+		b1 = template.b1;
+		b2 = template.b2;
+		buyprob = template.buyprob;
+		time = template.time;
+		stationality = template.stationality;
+		type = template.type;
+		product_visibility = template.product_visibility;
+		extended = template.extended;
+		mo = template.mo;
+		metric = new Indicator();
+		numMC = template.numMC;
+		randomSeedSelection = template.randomSeedSelection;
+		parallelMC = template.parallelMC;
+		mcThreads = template.mcThreads;
+		if (parallelMC)
+			mcPool = template.getMCPool();
+		synchronous = template.synchronous;
+		updateThreads = template.updateThreads;
+		if (synchronous)
+			updatePool = template.getUpdatePool();
+		geometricSampling = template.geometricSampling;
+		recordOutput = template.recordOutput;
+		recordCapacity = template.recordCapacity;
+		replicaSnapshots = template.replicaSnapshots;
+		snapshots = template.snapshots;
+		evaluationCache = template.evaluationCache;
+		adaptiveMC = template.adaptiveMC;
+		mcMinReplicas = template.mcMinReplicas;
+		mcBatch = template.mcBatch;
+		mcTolerance = template.mcTolerance;
+		mcConfidence = template.mcConfidence;
+		earlyStopping = template.earlyStopping;
+		stationaryWindow = template.stationaryWindow;
+		stationaryTurbulence = template.stationaryTurbulence;
+		stationaryShare = template.stationaryShare;
 	}
 	
-	private void setCustomer(int cid, Customer c){
-		this.customers[cid] = c;
+	/**
+	 * Creates a worker market to evaluate campaigns in another thread. The worker shares the 
+	 * configuration, the social network (and its metrics) and the contacts of this market, 
+	 * which are not modified during the simulations, and owns the rest of the state.
+	 * @return Worker market.
+	 */
+	public Market newWorker(){
+		return new Market(this);
+	}
+	
+	/* -------------- Methods -------------------- */
+	public void setCustomers(Customer [] cs){
+		for(Customer c: cs){
+			int cid = c.getIdentifier();
+			this.customers.setPurchase(cid, c.getPurchase());
+			if (c.isSeed())
+				this.customers.setSeed(cid);
+			this.customers.setSocialPreference(cid, c.getSocialPreference());
+			this.customers.setUmin(cid, c.getUmin());
+			this.customers.setUnct(cid, c.getUnct());
+			this.customers.setAw(cid, c.getAw());
+			this.customers.setDecay(cid, c.getDecay());
+			this.getCustomer(cid).setPreferences(c.getPreferences());
+			this.getCustomer(cid).setAwareness(c.getAwareness());
+		}
 	}
 	
 	public void setProducts(Product [] ps){
@@ -138,6 +297,7 @@ public class Market {
 	
 	public void setB2(double bt){
 		this.b2 = bt;
+		this.imitationWeights = null;
 	}
 	
 	public void setBuyProb(double bp){
@@ -150,14 +310,17 @@ public class Market {
 	
 	public void setType(boolean tp){
 		this.type = tp;
+		this.snapshots.clear();
 	}
 	
 	public void setExtended(boolean ext){
 		this.extended = ext;
+		this.snapshots.clear();
 	}
 	
 	public void setReader(Reader r){
 		this.configuration = r;
+		this.snapshots.clear();
 	}
 	
 	public void setSeed(long seed){
@@ -168,15 +331,34 @@ public class Market {
 	}
 	
 	public List<Integer> getContacts(int cid){
-		return this.sn.getNeighborsOfNodeFromGS(cid);
+		CSRGraph adjacency = this.sn.getAdjacency();
+		List<Integer> contacts = new ArrayList<>(adjacency.getDegree(cid));
+		for(int pos = 0; pos < adjacency.getDegree(cid); pos++){
+			contacts.add(adjacency.getNeighbor(cid, pos));
+		}
+		return contacts;
 	}
 	
 	public Customer [] getCustomers(){
-		return this.customers;
+		if (this.customerViews == null){
+			this.customerViews = new Customer [this.customers.getNumCustomers()];
+			for(int c = 0; c < this.customerViews.length; c++){
+				this.customerViews[c] = new Customer(this.customers, c);
+			}
+		}
+		return this.customerViews;
 	}
 	
 	public Customer getCustomer(int cid){
-		return this.customers[cid];
+		return this.getCustomers()[cid];
+	}
+	
+	public CustomerState getCustomerState(){
+		return this.customers;
+	}
+	
+	public int getNumCustomers(){
+		return this.customers.getNumCustomers();
 	}
 	
 	public Product [] getProducts(){
@@ -229,16 +411,253 @@ public class Market {
 
 	public void setRandomSeedSelection(boolean randomSeedSelection) {
 		this.randomSeedSelection = randomSeedSelection;
+		this.replicaWorkers.clear();
+	}
+	
+	public boolean isParallelMC() {
+		return parallelMC;
+	}
+	
+	/**
+	 * Enables the concurrent execution of the Monte Carlo replicas in run(double []).
+	 * Results are the same as in the sequential mode.
+	 * @param parallelMC True to run the replicas on a fork/join pool.
+	 * @param threads Number of threads of the pool.
+	 */
+	public void setParallelMC(boolean parallelMC, int threads) {
+		this.parallelMC = parallelMC;
+		if (threads != this.mcThreads && this.mcPool != null) {
+			this.mcPool.shutdown();
+			this.mcPool = null;
+		}
+		this.mcThreads = threads;
 	}
 
-	private void setConsumptions(int [] consumptions){
-		for(Customer c: this.getCustomers()){
-			consumptions[c.getIdentifier()] = c.getPurchase();
+	public boolean isSynchronous() {
+		return synchronous;
+	}
+	
+	/**
+	 * Selects the update mode of the customers. In the synchronous mode every process of a step 
+	 * reads the state the customers had at the beginning of the process and writes the new 
+	 * state into a second buffer, so the result does not depend on the customer order and the 
+	 * customers are updated in parallel. Each chunk of UPDATE_CHUNK customers draws its random 
+	 * numbers from its own stream, so the results do not depend on the number of threads either 
+	 * (but they differ from the ones of the sequential mode).
+	 * @param synchronous True to use the synchronous update mode.
+	 * @param threads Number of threads to update the customers.
+	 */
+	public void setSynchronous(boolean synchronous, int threads) {
+		this.synchronous = synchronous;
+		this.updateThreads = threads;
+		this.replicaWorkers.clear();
+		if (this.updatePool != null) {
+			this.updatePool.shutdown();
+			this.updatePool = null;
 		}
 	}
 	
-	private void setUpRandomGenerator(int seedId) {
+	public boolean isGeometricSampling() {
+		return geometricSampling;
+	}
+	
+	/**
+	 * Selects how the word of mouth and decay trials are sampled. By default a random number 
+	 * is drawn for each trial (aware product of a customer). With geometric sampling the 
+	 * trials of a process are sampled as a single sequence which jumps from a success to the 
+	 * next one (@see model.GeometricSampler), which is statistically equivalent but needs 
+	 * much less random numbers when the probabilities are low.
+	 * @param geometricSampling True to sample the trials by geometric skips.
+	 */
+	public void setGeometricSampling(boolean geometricSampling) {
+		this.geometricSampling = geometricSampling;
+		this.replicaWorkers.clear();
+	}
+	
+	/**
+	 * Sets the cache of the NPV of the evaluated campaigns (@see model.EvaluationCache). The 
+	 * campaigns which select the same seeds as a cached one get its NPV without being 
+	 * simulated. It is not used with random seed selection.
+	 * @param capacity Maximum number of cached campaigns (0 to disable the cache).
+	 */
+	public void setEvaluationCache(int capacity) {
+		this.evaluationCache = capacity > 0 ? new EvaluationCache(capacity) : null;
+		this.replicaWorkers.clear();
+	}
+	
+	/**
+	 * Get the cache of the NPV of the evaluated campaigns.
+	 * @return Cache (null if it is disabled).
+	 */
+	public EvaluationCache getEvaluationCache() {
+		return evaluationCache;
+	}
+	
+	/**
+	 * Get the number of Monte Carlo replicas of an evaluation.
+	 * @return Replicas (the maximum in the adaptive mode).
+	 */
+	public int getNumMC() {
+		return numMC;
+	}
+	
+	public boolean isAdaptiveMC() {
+		return adaptiveMC;
+	}
+	
+	/**
+	 * Selects the adaptive number of Monte Carlo replicas in run(double []). The replicas are 
+	 * simulated in batches (concurrently if the parallel mode is enabled) while the mean and 
+	 * variance of the NPV are updated, and the evaluation stops when the confidence interval 
+	 * of the mean is narrow enough or when the monte_carlos replicas have been simulated.
+	 * @param adaptiveMC True to stop the replicas by the confidence interval.
+	 * @param minReplicas Replicas simulated before checking the interval (at least 2).
+	 * @param batch Replicas simulated between two checks.
+	 * @param tolerance Maximum half-width of the interval relative to the mean NPV.
+	 * @param confidence Confidence level of the interval (e.g. 0.95).
+	 */
+	public void setAdaptiveMC(boolean adaptiveMC, int minReplicas, int batch, double tolerance, double confidence) {
+		this.adaptiveMC = adaptiveMC;
+		this.mcMinReplicas = minReplicas;
+		this.mcBatch = batch;
+		this.mcTolerance = tolerance;
+		this.mcConfidence = confidence;
+	}
+	
+	/**
+	 * Get the number of Monte Carlo replicas simulated in the last call to run(double []).
+	 * @return Replicas (0 if the NPV was found in the evaluation cache).
+	 */
+	public int getLastReplicas() {
+		return lastReplicas;
+	}
+	
+	public boolean isEarlyStopping() {
+		return earlyStopping;
+	}
+	
+	/**
+	 * Selects the early stopping of the replicas in run(double []). A replica stops when the 
+	 * turbulence and the change of the share of the optimized product have stayed under the 
+	 * thresholds for a window of steps (and at least for stationality steps, as the purchases 
+	 * only change in the consumption steps). The NPV of the remaining steps is extrapolated 
+	 * with the mean number of new adopters per step of the window, under the same discounting.
+	 * @param earlyStopping True to stop the replicas in a stationary state.
+	 * @param window Number of stationary steps before stopping.
+	 * @param turbulence Maximum turbulence of a stationary step.
+	 * @param share Maximum change of the share of the optimized product in a stationary step, 
+	 * as a ratio of the customers.
+	 */
+	public void setEarlyStopping(boolean earlyStopping, int window, double turbulence, double share) {
+		this.earlyStopping = earlyStopping;
+		this.stationaryWindow = window;
+		this.stationaryTurbulence = turbulence;
+		this.stationaryShare = share;
+		this.replicaWorkers.clear();
+	}
+	
+	/**
+	 * Hash of the configuration of the market which determines the result of a campaign: 
+	 * the parameters of the configuration file and the values changed after reading it.
+	 * @return Hash of the configuration.
+	 */
+	private long getConfigurationHash() {
+		long [] values = new long [] {
+				this.configuration.getContentHash(), Double.doubleToLongBits(this.alpha), 
+				Double.doubleToLongBits(this.b1), Double.doubleToLongBits(this.b2), 
+				Double.doubleToLongBits(this.buyprob), this.time, this.stationality, 
+				this.type ? 1 : 0, this.extended ? 1 : 0, this.product_visibility, this.numMC, 
+				this.synchronous ? 1 : 0, this.geometricSampling ? 1 : 0, this.adaptiveMC ? 1 : 0, 
+				this.mcMinReplicas, this.mcBatch, Double.doubleToLongBits(this.mcTolerance), 
+				Double.doubleToLongBits(this.mcConfidence), this.earlyStopping ? 1 : 0, this.stationaryWindow, 
+				Double.doubleToLongBits(this.stationaryTurbulence), Double.doubleToLongBits(this.stationaryShare)};
+		long hash = 0L;
+		for (long v: values) {
+			hash = 31 * hash + RandomizerUtils.computeMurmurHash3(v);
+		}
+		return hash;
+	}
+	
+	public boolean isReplicaSnapshots() {
+		return replicaSnapshots;
+	}
+	
+	/**
+	 * Sets if the initial state of each Monte Carlo replica is kept. The initial state of a 
+	 * replica (customers, products and random number generator after the initialization of 
+	 * the model) only depends on its seed, so it is built in the first evaluation and 
+	 * restored in the next ones (@see model.ReplicaSnapshot), which gives the same results 
+	 * without initializing the model again. It needs memory for a copy of the customers per 
+	 * replica.
+	 * @param replicaSnapshots True to keep the initial state of the replicas.
+	 */
+	public void setReplicaSnapshots(boolean replicaSnapshots) {
+		this.replicaSnapshots = replicaSnapshots;
+		this.snapshots.clear();
+		this.replicaWorkers.clear();
+	}
+	
+	/**
+	 * Starts recording the time series of the simulations of this market (and its workers)
+	 * into a binary file (@see model.StepRecorder).
+	 * @param path File path.
+	 * @throws IOException If the file can not be created.
+	 */
+	public void startRecording(String path) throws IOException {
+		this.closeRecording();
+		this.recordOutput = new StepRecorder.Output(path, this.getProducts().length, 
+				this.getNumCustomers(), this.mo ? 2 : 1);
+		this.replicaWorkers.clear();
+	}
+	
+	/**
+	 * Stops recording and closes the file of the time series.
+	 * @throws IOException If the file can not be closed.
+	 */
+	public void closeRecording() throws IOException {
+		if (this.recorder != null)
+			this.recorder.flush();
+		if (this.recordOutput != null)
+			this.recordOutput.close();
+		this.recordOutput = null;
+		this.recorder = null;
+	}
+	
+	private StepRecorder getRecorder(){
+		if (this.recordOutput == null)
+			return null;
+		if (this.recorder == null)
+			this.recorder = new StepRecorder(this.recordOutput, this.recordCapacity);
+		return this.recorder;
+	}
+	
+	/**
+	 * Records the state of the market after a step.
+	 * @param recorder Recorder (null if the market is not recorded).
+	 * @param step Step.
+	 * @param turbulence Turbulence of the step.
+	 * @param npv NPV increment of the step (null if not calculated).
+	 */
+	private void recordStep(StepRecorder recorder, int step, double turbulence, double [] npv){
+		if (recorder != null){
+			recorder.record(step, this.metric.getShares(), turbulence, this.metric.getStepHeuristics(), 
+					this.customers.countAwareness(), npv);
+		}
+	}
+	
+	/**
+	 * Shares the adjacency snapshot of the social network as contacts of the customers. 
+	 * The topology does not change between simulations so it is only read once.
+	 */
+	private void setUpContacts(){
+		CSRGraph adjacency = sn.getAdjacency();
+		this.customers.setContacts(adjacency.getOffsets(), adjacency.getTargets());
+	}
+	
+	void setUpRandomGenerator(int seedId) {
 		g = RandomizerFactory.createRandomizer(RandomizerAlgorithm.XOR_SHIFT_128_PLUS_FAST, SeedContainer.getSeed(seedId)); 
+		streamSeed = SeedContainer.getSeed(seedId);
+		streamPhase = 0;
 	}
 	/**
 	 * Initialization of the market model. 
@@ -281,412 +700,735 @@ public class Market {
 			this.setProduct(p, aux);						
 		}
 		// Next, initialize customers.
+		CustomerState cs = this.customers;
+		int numProducts = this.getProducts().length;
+		cs.reset();
+		// Fixed values of the customer variables (not random model).
+		double bi = 0.0, umin = 0.0, unct = 0.0, aw = 0.0, awd = 0.0;
+		if (!this.getModelType()){
+			bi = this.getConfiguration().getParameterDouble("Bi");
+			umin = this.getConfiguration().getParameterDouble("Umin");
+			unct = this.getConfiguration().getParameterDouble("Unct");
+			aw = this.getConfiguration().getParameterDouble("awareness_value");
+			awd = this.getConfiguration().getParameterDouble("awareness_decay_value");
+		}
 		int purchase;
-		for(int c = 0; c < this.getCustomers().length; c++){
-			Customer aux = new Customer(c);
-			aux.setContacts(this.getContacts(c));
+		for(int c = 0; c < cs.getNumCustomers(); c++){
 			
 			if(!this.toOptimize()){
-				purchase = g.nextInt(this.getProducts().length);
+				purchase = g.nextInt(numProducts);
 			}
 			else{
-				purchase = g.nextInt(this.getProducts().length - 1);
+				purchase = g.nextInt(numProducts - 1);
 			}
 
-			aux.setPurchase(purchase);
+			cs.setPurchase(c, purchase);
 			
 			if (this.getModelType()){
-				aux.setSocialPreference(g.nextDouble());
-				aux.setUmin(g.nextDouble());
-				aux.setUnct(g.nextDouble() * 0.5);
-				aux.setAw(0.2 + (g.nextDouble() * (1.0 - 0.8)));
-				aux.setDecay(0.0 + (g.nextDouble() * (0.5 - 0.0)));
+				cs.setSocialPreference(c, g.nextDouble());
+				cs.setUmin(c, g.nextDouble());
+				cs.setUnct(c, g.nextDouble() * 0.5);
+				cs.setAw(c, 0.2 + (g.nextDouble() * (1.0 - 0.8)));
+				cs.setDecay(c, 0.0 + (g.nextDouble() * (0.5 - 0.0)));
 			}
 			else{
-				aux.setSocialPreference(this.getConfiguration().getParameterDouble("Bi"));
-				aux.setUmin(this.getConfiguration().getParameterDouble("Umin"));
-				aux.setUnct(this.getConfiguration().getParameterDouble("Unct"));
-				aux.setAw(this.getConfiguration().getParameterDouble("awareness_value"));
-				aux.setDecay(this.getConfiguration().getParameterDouble("awareness_decay_value"));
+				cs.setSocialPreference(c, bi);
+				cs.setUmin(c, umin);
+				cs.setUnct(c, unct);
+				cs.setAw(c, aw);
+				cs.setDecay(c, awd);
 			}
 			// Setting values for product preferences and awareness (depending on the model type).
-			aux.setPreferences(new double [this.products.length]);
-			aux.setAwareness(new boolean [this.products.length]);
-			double ppref = 0.0;
-			for(int p = 0; p < this.getProducts().length; p++){
-				ppref = g.nextDouble();
-				aux.setPreference(p, ppref);
+			for(int p = 0; p < numProducts; p++){
+				cs.setPreference(c, p, g.nextDouble());
 				// If we have a not awareness model, we set awareness of all the products of the market.
 				if (!this.getExtended()){
-					aux.setProductAwareness(p, true);
+					cs.setProductAwareness(c, p, true);
 				}
 					
 				// If we have an awareness model, customers will be only aware of the product they are consuming.
 				// This can be changed if does not work well.
 				else{
-					if (aux.getPurchase() == p){
-						aux.setProductAwareness(p, true);
+					if (purchase == p){
+						cs.setProductAwareness(c, p, true);
 					}
 					else {
 						if(g.nextDouble() < 0.4){
-						//aux.setProductAwareness(p, false);
-							int prod = g.nextInt(this.products.length - 1);
-							aux.setProductAwareness(prod, true);
+							int prod = g.nextInt(numProducts - 1);
+							cs.setProductAwareness(c, prod, true);
 						}
 					}
 				}
 					
 			}
 			if (this.toOptimize()) {
-				aux.setProductAwareness(this.getProducts().length - 1, false);
+				cs.setProductAwareness(c, numProducts - 1, false);
 			}
-				
-			this.setCustomer(c, aux);
-		}		
+		}
+		// Highest probabilities of the word of mouth and decay trials (geometric sampling).
+		this.maxAw = 0.0;
+		this.maxDecay = 0.0;
+		for(int c = 0; c < cs.getNumCustomers(); c++){
+			this.maxAw = Math.max(this.maxAw, cs.getAw(c));
+			this.maxDecay = Math.max(this.maxDecay, cs.getDecay(c));
+		}
 	}
 	
 	/* -------- Methods for calculate expected utility and uncertainty ------ */
-	private double sameElection(int cid, int pid){
-		// Depending on product visibility, the customer will explore different parts of its 
-		// social network to determine the fraction of friends which are consuming the same 
-		// product as he is consuming. The following cases are considered:
-		// * If the product visibility is low, the customer will only look at those friends having 
-		// similar preferences (values of pi), which we call close friends.
-		// * If the product visibility is normal, will look at this network of friends to determine the 
-		// social utility.
-		// If the product visibility is high, products may generate social processes among agents who are
-		// not even friends. Here, information is also obtained from friends of friends; thus a meta-network 
-		// is being used that consists of the summed networks of all friends.
-		
-		int numcontacts = 0;
-		int consumingthesame = 0;
-		// First case: Low visibility.
-		
-		if (this.getProduct(pid).getVisibility().equals("low")){
-			// We assume that a close friend is an agent with a social preference in a range between 
-			// +- .1 from the customer social preferences.
-			for(Integer c: this.getCustomer(cid).getContacts()){
-				// If is a close friend.
-				if (Math.abs(this.getCustomer(cid).getProductPreference(pid) - this.getCustomer(c).getProductPreference(pid)) <= 0.2)	
-					// If is consuming the same product.
-					numcontacts += 1;
-					if (this.getCustomer(c).getPurchase() == pid)
-						consumingthesame += 1;
-			}
-		}
-		else if (this.getProduct(pid).getVisibility().equals("normal")){
-			// We search customers that are friends of the current customer.
-			numcontacts = this.getCustomer(cid).getContacts().length;
-			for(int c  = 0; c < this.getCustomer(cid).getContacts().length; c++) {
-				// If is consuming the same product.
-				if (this.getCustomer(this.getCustomer(cid).getContactId(c)).getPurchase() == pid) {
-					consumingthesame += 1;
-				}
-			}
-		}
-		else{
-			// As result, we have a set with the friends of friend that compose the extended network
-			// for the customer. Then we calculate the fraction of contacts consuming the same product as
-			// the current customer.
-			for(Integer c: this.getCustomer(cid).getContacts()){
-				for(Integer f: this.getCustomer(c).getContacts()) {
-					if (this.getCustomer(f).getPurchase() == pid && cid != f) {
-						consumingthesame += 1;
-					}
-				}
-			}
-		}
-		// Sometimes there exist customers (in the case of low visibility products) who don't have 
-		// contacts with a similar value of social preference that were consuming the same so the return
-		// value must be 0.
+	// Depending on product visibility, the customer will explore different parts of its 
+	// social network to determine the fraction of friends which are consuming the same 
+	// product as he is consuming. The following cases are considered:
+	// * If the product visibility is low, the customer will only look at those friends having 
+	// similar preferences (values of pi), which we call close friends.
+	// * If the product visibility is normal, will look at this network of friends to determine the 
+	// social utility.
+	// If the product visibility is high, products may generate social processes among agents who are
+	// not even friends. Here, information is also obtained from friends of friends; thus a meta-network 
+	// is being used that consists of the summed networks of all friends.
+	//
+	// The number of contacts consuming each product is kept up to date in socialCounts 
+	// (@see model.NeighbourCounts), so the neighbourhoods are not scanned here. 
+	// Sometimes there exist customers (in the case of low visibility products) who don't have 
+	// contacts with a similar value of social preference that were consuming the same so the 
+	// fraction must be 0.
+	
+	private double lowVisibilityShare(int cid, int pid){
+		// We assume that a close friend is an agent with a social preference in a range between 
+		// +- .1 from the customer social preferences. The fraction relates the contacts consuming 
+		// the same product to the number of close friends.
+		int numcontacts = this.socialCounts.getCloseFriends(cid, pid);
+		if (numcontacts == 0)
+			return 0.0;
+		else
+			return (double) this.socialCounts.getCount(cid, pid) / (double) numcontacts;
+	}
+	
+	private double normalVisibilityShare(int cid, int pid){
+		// We search customers that are friends of the current customer.
+		int numcontacts = this.customers.getNumContacts(cid);
 		if (numcontacts == 0)
 			return 0.0;
 		else
-			return (double) consumingthesame / (double) numcontacts;
+			return (double) this.socialCounts.getCount(cid, pid) / (double) numcontacts;
+	}
+	
+	private double highVisibilityShare(int cid, int pid){
+		// Friends of friends compose the extended network for the customer. The contacts of 
+		// this meta-network are not counted, so the fraction for a highly visible product is 
+		// always 0 and the meta-network does not need to be explored.
+		return 0.0;
 	}
 	
 	private double expectedUtility(int cid, int pid, double customerProductShare){
-		return this.getAlpha() * (this.getCustomer(cid).getSocialPreference() * 
-				(1.0 - Math.abs(this.getProduct(pid).getQuality() - this.getCustomer(cid).getProductPreference(pid))) 
-						+ (1.0 - this.getCustomer(cid).getSocialPreference()) * customerProductShare);
+		double socialpreference = this.customers.getSocialPreference(cid);
+		return this.getAlpha() * (socialpreference * 
+				(1.0 - Math.abs(this.getProduct(pid).getQuality() - this.customers.getProductPreference(cid, pid))) 
+						+ (1.0 - socialpreference) * customerProductShare);
 		
 	}
 	
 	private double expectedUncertainty(int cid, double customerProductShare){
-		return (1.0 - this.getCustomer(cid).getSocialPreference()) * (1.0 - customerProductShare);
+		return (1.0 - this.customers.getSocialPreference(cid)) * (1.0 - customerProductShare);
+	}
+	
+	/**
+	 * Builds the table of products consumed by the contacts of each customer. It must be 
+	 * called once the purchases of the simulation have been initialized (seeds included).
+	 */
+	void initializeSocialCounts(){
+		boolean [] lowVisibility = new boolean [this.getProducts().length];
+		for(int p = 0; p < lowVisibility.length; p++){
+			lowVisibility[p] = this.getProduct(p).getVisibility() == Product.Visibility.LOW;
+		}
+		this.socialCounts.initialize(lowVisibility);
+	}
+	
+	/**
+	 * Changes the purchase of a customer keeping the social counts and the market shares of 
+	 * the indicators up to date.
+	 * @param cid Customer identifier.
+	 * @param pid New purchase.
+	 */
+	private void changePurchase(int cid, int pid){
+		int old = this.customers.getPurchase(cid);
+		if (old != pid){
+			this.customers.setPurchase(cid, pid);
+			this.socialCounts.update(cid, old, pid);
+			this.metric.changePurchase(old, pid);
+		}
 	}
 	
-	private void calculateutilsanduncts(double [] [] utils, double [] [] uncts){
+	void calculateutilsanduncts(double [] [] utils, double [] [] uncts){
+		this.calculateutilsanduncts(null, utils, uncts);
+		this.socialCounts.getDirtyCustomers().clear();
+	}
+	
+	/**
+	 * Calculates the expected utilities and uncertainties of a set of customers. The 
+	 * visibilities of the products are read once, and each customer and product only switches 
+	 * on the enum to choose the kernel. The customers are the outer loop, so each row of the 
+	 * utilities and uncertainties is written in sequence.
+	 * @param dirty Customers to update, or null to update all of them.
+	 */
+	private void calculateutilsanduncts(DirtyCustomers dirty, double [] [] utils, double [] [] uncts){
+		Product.Visibility [] visibilities = new Product.Visibility [this.getProducts().length];
+		for(int ppos = 0; ppos < visibilities.length; ppos++){
+			visibilities[ppos] = this.getProduct(ppos).getVisibility();
+		}
+		int numcustomers = (dirty == null) ? utils.length : dirty.size();
+		double customerProductShare;
+		int cpos;
+		for(int pos = 0; pos < numcustomers; pos++){
+			cpos = (dirty == null) ? pos : dirty.get(pos);
+			for(int ppos = 0; ppos < visibilities.length; ppos++){
+				switch (visibilities[ppos]){
+				case LOW:
+					customerProductShare = this.lowVisibilityShare(cpos, ppos);
+					break;
+				case NORMAL:
+					customerProductShare = this.normalVisibilityShare(cpos, ppos);
+					break;
+				default:
+					customerProductShare = this.highVisibilityShare(cpos, ppos);
+					break;
+				}
+				utils [cpos] [ppos] = this.expectedUtility(cpos, ppos, customerProductShare);
+				uncts [cpos] [ppos] = this.expectedUncertainty(cpos, customerProductShare);
+			}
+		}
+	}
+	
+	/**
+	 * Calculates the expected utilities and uncertainties comparing the label of the
+	 * visibility for every customer and product, as before the visibility was an enum. It is
+	 * only kept as the reference of the visibility kernels in MarketBenchmark.
+	 */
+	void calculateutilsandunctsByLabel(double [] [] utils, double [] [] uncts){
 		double customerProductShare;
 		for(int cpos = 0; cpos < utils.length; cpos++){
-			// calculation which number of contacts of the 
 			for(int ppos = 0; ppos < utils[cpos].length; ppos++){
-				customerProductShare = sameElection(cpos, ppos);
+				String visibility = this.getProduct(ppos).getVisibility().toString();
+				if (visibility.equals("low"))
+					customerProductShare = this.lowVisibilityShare(cpos, ppos);
+				else if (visibility.equals("normal"))
+					customerProductShare = this.normalVisibilityShare(cpos, ppos);
+				else
+					customerProductShare = this.highVisibilityShare(cpos, ppos);
 				utils [cpos] [ppos] = this.expectedUtility(cpos, ppos, customerProductShare);
 				uncts [cpos] [ppos] = this.expectedUncertainty(cpos, customerProductShare);
 			}
 		}
+		this.socialCounts.getDirtyCustomers().clear();
 	}
+
+	/**
+	 * Calculates again the expected utilities and uncertainties of the customers whose
+	 * neighbourhood changed since the last calculation. The rest of the values are still valid 
+	 * as they only depend on the products consumed by the contacts of each customer. 
+	 */
+	private void updateutilsanduncts(double [] [] utils, double [] [] uncts){
+		DirtyCustomers dirty = this.socialCounts.getDirtyCustomers();
+		this.calculateutilsanduncts(dirty, utils, uncts);
+		dirty.clear();
+	}
+	
 	/* --------- Decision heuristics -----------------*/
+	// The heuristics weight the candidate products with a logit function and choose one of 
+	// them with a roulette. The weight of each candidate is calculated once in logitWeights 
+	// (0 for the products which are not candidates) and then rouletteSelection draws the 
+	// choice from the cumulative probabilities. 
 	
-	private int deliberation(int cid, double [] expectedutilities){
-		// The agent will evaluate the expected U i of each product, and will use a logit 
-		// function to solve the discrete choice.
-		// In the logit function the products acquire a probability Tp of being chosen.
-		// This probability depends on the relative expected utility.
-		// The products are weighted by the exponent of the parameter b 1 times the
-		// expected utility. The higher the value of b 1 , the more sensitive is the decision
-		// between the products to differences in their expected utility.
-		double sumexputility = 0.0;
-		
-		// We select only the set of products the customer has awareness of. 
-		for(int prod = 0; prod < expectedutilities.length; prod++){
-			if(this.getCustomer(cid).getProductAwareness(prod)) {
-				sumexputility += Math.pow(Math.E, this.getB1() * expectedutilities[prod]);
+	private double [] getLogitWeights(){
+		if (this.logitWeights == null)
+			this.logitWeights = new double [this.getProducts().length];
+		return this.logitWeights;
+	}
+	
+	/**
+	 * Weight of a product consumed by k contacts in the imitation heuristic: exp(b2 * k). 
+	 * The weights are precomputed up to the maximum degree of the network.
+	 * @param k Number of contacts consuming the product.
+	 * @return Weight.
+	 */
+	private double imitationWeight(int k){
+		if (this.imitationWeights == null){
+			int maxdegree = 0;
+			for(int c = 0; c < this.getNumCustomers(); c++){
+				maxdegree = Math.max(maxdegree, this.customers.getNumContacts(c));
+			}
+			double [] table = new double [maxdegree + 1];
+			for(int v = 0; v < table.length; v++){
+				table[v] = Math.pow(Math.E, this.getB2() * (double) v);
 			}
+			this.imitationWeights = table;
+		}
+		return this.imitationWeights[k];
+	}
+	
+	private int rouletteSelection(int cid, double [] weights, Randomizer r){
+		double sumweights = 0.0;
+		for(int prod = 0; prod < weights.length; prod++){
+			if (weights[prod] != 0.0)
+				sumweights += weights[prod];
 		}
-		// And we compose the random pie also from the products the customer is aware of. 
-		boolean selected = false;
-		int product = 0;
+		// And we compose the random pie from the candidate products. 
 		double Tp = 0.0;
-		double randval = g.nextDouble();; 
-		
-		while (!selected && product < this.getProducts().length){
-			if (this.getCustomer(cid).getProductAwareness(product)) {
-				Tp += Math.pow(Math.E, this.getB1() * expectedutilities[product]) / sumexputility;
-				
+		double randval = r.nextDouble();
+		for(int product = 0; product < weights.length; product++){
+			if (weights[product] != 0.0){
+				Tp += weights[product] / sumweights;
 				if (randval < Tp) {
-					selected = true;
-				}
-				else {
-					product++;
+					return product;
 				}
 			}
-			else {
-				product++;
-			}
 		}
 		// Sometimes, an agent has information about a product but any of her/his contacts 
 		// buy it or vice versa. In these cases, the agent can't take a decision about another 
 		// product so (s)he needs to repeat her/his decision. 
-		if (product == this.getProducts().length) {
-			return this.getCustomer(cid).getPurchase();
-		}
-		else {
-			return product;
+		return this.customers.getPurchase(cid);
+	}
+	
+	private int deliberation(int cid, double [] expectedutilities, double [] weights, Randomizer r){
+		// The agent will evaluate the expected U i of each product, and will use a logit 
+		// function to solve the discrete choice.
+		// In the logit function the products acquire a probability Tp of being chosen.
+		// This probability depends on the relative expected utility.
+		// The products are weighted by the exponent of the parameter b 1 times the
+		// expected utility. The higher the value of b 1 , the more sensitive is the decision
+		// between the products to differences in their expected utility.
+		CustomerState cs = this.customers;
+		
+		// We select only the set of products the customer has awareness of. 
+		for(int prod = 0; prod < weights.length; prod++){
+			if(cs.getProductAwareness(cid, prod))
+				weights[prod] = Math.pow(Math.E, this.getB1() * expectedutilities[prod]);
+			else
+				weights[prod] = 0.0;
 		}
+		return this.rouletteSelection(cid, weights, r);
 	}
 	
-	private int imitation(int cid){
+	private int imitation(int cid, double [] weights, Randomizer r){
 		// The agent evaluates the products that are being consumed by his or her friends. 
 		// The product with the largest share among the neighbors has a higher probability
 		// of being chosen for current consumption.
-		int [] friendsconsumptions = new int [this.getProducts().length];
+		CustomerState cs = this.customers;
+		int row = cid * weights.length;
+		// Products being consumed by their friends (amount per product).
+		int [] friendsconsumptions = this.socialCounts.getCounts();
 		
-		// Calculate the products being consumed by their friends (amount per product).
-		for(Integer c: this.getCustomer(cid).getContacts()){
-			friendsconsumptions[this.getCustomer(c).getPurchase()] += 1;
-		}
-		// Then, he have obtained the number of friends consuming each product.
-		double sumprodamount = 0.0;
-		for(int prod = 0; prod < friendsconsumptions.length; prod++){
-			if(this.getCustomer(cid).getProductAwareness(prod)) {
-				sumprodamount += Math.pow(Math.E, this.getB2() * (double)friendsconsumptions[prod]);
-			}
+		for(int prod = 0; prod < weights.length; prod++){
+			if(cs.getProductAwareness(cid, prod))
+				weights[prod] = this.imitationWeight(friendsconsumptions[row + prod]);
+			else
+				weights[prod] = 0.0;
 		}
 		// Finally, we choose the customer election.
-		boolean selected = false;
-		int product = 0;
-		double Tp = 0.0;
-		double randval = g.nextDouble();
-		
-		while (!selected && product < this.getProducts().length){
-			if (this.getCustomer(cid).getProductAwareness(product)) {
-				Tp += Math.pow(Math.E, this.getB2() * friendsconsumptions[product]) / sumprodamount;
-
-				if (randval < Tp) {
-					selected = true;
-				}
-				else {
-					product++;
-				}
-			}
-			else {
-				product++;
-			}
-		}
-		// Sometimes, an agent has information about a product but any of her/his contacts 
-		// buy it or vice versa. In these cases, the agent can't take a decision about another 
-		// product so (s)he needs to repeat her/his decision. 
-		if (product == this.getProducts().length) {
-			return this.getCustomer(cid).getPurchase();
-		}
-		else {
-			return product;
-		}
+		return this.rouletteSelection(cid, weights, r);
 	}
 	
-	private int socialComparison(int cid, double [] expectedutilities){
+	private int socialComparison(int cid, double [] expectedutilities, double [] weights, Randomizer r){
 		// The agent evaluates the products that are consumed by his or her friends. Using the
 		// same logit function as in the case of deliberation, the agent makes a choice
 		// between the expected satisfaction resulting from consuming the products that are
 		// also consumed by their friends. Thus the socially comparing agent might consider
 		// a smaller set of products than a deliberating agent.
-		int [] friendsconsumptions = new int [this.getProducts().length];
-		
-		// Calculate the products being consumed by their friends (amount per product).
-		for(Integer c: this.getCustomer(cid).getContacts()){
-			friendsconsumptions[this.getCustomer(c).getPurchase()] += 1;
-		}
+		CustomerState cs = this.customers;
+		int row = cid * weights.length;
+		// Products being consumed by their friends (amount per product).
+		int [] friendsconsumptions = this.socialCounts.getCounts();
 		
-		
-		double sumexputility = 0.0;
-		
-		for(int prod = 0; prod < expectedutilities.length; prod++){
-			if (friendsconsumptions[prod] > 0 && this.getCustomer(cid).getProductAwareness(prod)){
-				sumexputility += Math.pow(Math.E, this.getB1() * expectedutilities[prod]);
-			}
-		}
-		
-		boolean selected = false;
-		int product = 0;
-		double Tp = 0.0;
-		double randval = g.nextDouble();
-
-		while (!selected && product < this.getProducts().length){
-			if (friendsconsumptions[product] > 0 && this.getCustomer(cid).getProductAwareness(product)){
-				Tp += Math.pow(Math.E, this.getB1() * expectedutilities[product]) / sumexputility;
-				
-				if (randval < Tp) {
-					selected = true;
-				}
-				else {
-					product++;
-				}
-			}
-			else {
-				product++;
-			}
-		}
-		// Sometimes, an agent has information about a product but any of her/his contacts 
-		// buy it or vice versa. In these cases, the agent can't take a decision about another 
-		// product so (s)he needs to repeat her/his decision. 
-		if (product == this.getProducts().length) {
-			return this.getCustomer(cid).getPurchase();
-		}
-		else {
-			return product;
+		for(int prod = 0; prod < weights.length; prod++){
+			if (friendsconsumptions[row + prod] > 0 && cs.getProductAwareness(cid, prod))
+				weights[prod] = Math.pow(Math.E, this.getB1() * expectedutilities[prod]);
+			else
+				weights[prod] = 0.0;
 		}
+		return this.rouletteSelection(cid, weights, r);
 	}
 	
 	/* --------- Information exchange and consumption processes ---------- */
 	private void consumptionProcess(double [] [] utils, double [] [] uncts){
 		
+		if (this.isSynchronous()){
+			this.synchronousConsumptionProcess(utils, uncts);
+			return;
+		}
+		CustomerState cs = this.customers;
+		int [] purchases = cs.getPurchases();
+		boolean [] seeds = cs.getSeeds();
+		double [] umins = cs.getUmins();
+		double [] unctts = cs.getUncts();
+		double [] weights = this.getLogitWeights();
 		int [] huse = new int[4];
 		double conttruecustomers = 0;
 		
-		for(int c = 0; c < this.getCustomers().length; c++){
-			if (this.getCustomer(c).isSeed()){
+		for(int c = 0; c < cs.getNumCustomers(); c++){
+			if (seeds[c]){
 				huse[0] += 1;
 			}
 			else{
 				if (g.nextDouble() < this.getBuyProb()){ // If the agent buys in this iteration.
+					double utility = utils [c] [purchases[c]];
+					double uncertainty = uncts [c] [purchases[c]];
 					
-					if (utils [this.getCustomer(c).getIdentifier()] [this.getCustomer(c).getPurchase()] >= this.getCustomer(c).getUmin() && 
-							uncts [this.getCustomer(c).getIdentifier()] [this.getCustomer(c).getPurchase()] <= this.getCustomer(c).getUnct()){
+					if (utility >= umins[c] && uncertainty <= unctts[c]){
 						// Customer repeats his election.
 						huse[0] += 1;
 					}
-					else if (utils [this.getCustomer(c).getIdentifier()] [this.getCustomer(c).getPurchase()] < this.getCustomer(c).getUmin() && 
-							uncts [this.getCustomer(c).getIdentifier()] [this.getCustomer(c).getPurchase()] <= this.getCustomer(c).getUnct()){
-						this.getCustomer(c).setPurchase(this.deliberation(this.getCustomer(c).getIdentifier(), utils [this.getCustomer(c).getIdentifier()]));
+					else if (utility < umins[c] && uncertainty <= unctts[c]){
+						this.changePurchase(c, this.deliberation(c, utils [c], weights, g));
 						huse[1] += 1;
 					}
-					else if (utils [this.getCustomer(c).getIdentifier()] [this.getCustomer(c).getPurchase()] >= this.getCustomer(c).getUmin() && 
-							uncts [this.getCustomer(c).getIdentifier()] [this.getCustomer(c).getPurchase()] > this.getCustomer(c).getUnct()){
-						this.getCustomer(c).setPurchase(this.imitation(this.getCustomer(c).getIdentifier()));
+					else if (utility >= umins[c] && uncertainty > unctts[c]){
+						this.changePurchase(c, this.imitation(c, weights, g));
 						huse[2] += 1;
 					}
 					else{
-						this.getCustomer(c).setPurchase(this.socialComparison(this.getCustomer(c).getIdentifier(), utils [this.getCustomer(c).getIdentifier()]));
+						this.changePurchase(c, this.socialComparison(c, utils [c], weights, g));
 						huse[3] += 1;
 					}
 					conttruecustomers += 1.0;
 				}
 			}
 		}
-		this.metric.setMeanCustomers(conttruecustomers / (double) this.getCustomers().length);
+		this.metric.setMeanCustomers(conttruecustomers / (double) cs.getNumCustomers());
 		this.metric.setHeuristicsUse(huse);
 	}
 	
+	// The awareness of each customer is a bitset (@see model.CustomerState), so the processes 
+	// work with whole words: the products a customer talks about (or forgets) are collected in 
+	// a mask and applied with a single operation per word.
+	
+	/**
+	 * Selects each product of a word with a given probability. The random numbers are drawn in 
+	 * product order, one per product of the word.
+	 * @param products Products (bits) to try.
+	 * @param prob Probability of selecting each product.
+	 * @param r Random number generator.
+	 * @return Selected products.
+	 */
+	private static long sampleProducts(long products, double prob, Randomizer r){
+		long selected = 0L;
+		while (products != 0L){
+			long bit = Long.lowestOneBit(products);
+			if (r.nextDouble() < prob)
+				selected |= bit;
+			products ^= bit;
+		}
+		return selected;
+	}
+	
+	/**
+	 * Creates the sampler of the trials of a process, or null if each trial draws its own 
+	 * random number.
+	 * @param p Highest probability of success of the trials.
+	 * @param r Random number generator.
+	 * @return Sampler.
+	 */
+	private GeometricSampler newSampler(double p, Randomizer r){
+		if (!this.isGeometricSampling())
+			return null;
+		return new GeometricSampler(r, p);
+	}
+	
+	private static long sampleProducts(long products, double prob, Randomizer r, GeometricSampler skips){
+		if (skips == null)
+			return sampleProducts(products, prob, r);
+		return skips.sample(products, prob);
+	}
+	
 	public void speak(int coneid){
-		Customer c = this.getCustomer(coneid);
-		for(int p = 0; p < this.getProducts().length; p++){
-			if(c.getProductAwareness(p)) { 
-				if(g.nextDouble() < c.getAw()){
-					for(int contact = 0; contact < c.getContacts().length; contact++) {
-						if(!this.getCustomer(c.getContactId(contact)).getProductAwareness(p)) {
-							this.getCustomer(c.getContactId(contact)).setProductAwareness(p, true);
-						}
-					}
+		this.speak(coneid, null);
+	}
+	
+	private void speak(int coneid, GeometricSampler skips){
+		CustomerState cs = this.customers;
+		long [] awareness = cs.getAwareness();
+		int words = cs.getAwarenessWords();
+		int [] offsets = cs.getContactOffsets();
+		int [] contacts = cs.getContacts();
+		for(int w = 0; w < words; w++){
+			// Products the customer is aware of and talks about.
+			long talks = sampleProducts(awareness[coneid * words + w], cs.getAw(coneid), g, skips);
+			if (talks != 0L){
+				for(int pos = offsets[coneid]; pos < offsets[coneid + 1]; pos++) {
+					awareness[contacts[pos] * words + w] |= talks;
 				}
 			}
 		}
 	}
 	
 	public void decay(int coneid) {
-		for(int p = 0; p < this.getCustomer(coneid).getAwareness().length; p++){
-			// If isn't the product being consumed by the customer
-			if (p != this.getCustomer(coneid).getPurchase()) {
-				if(this.getCustomer(coneid).getProductAwareness(p)) { 
-					if(g.nextDouble() < this.getCustomer(coneid).getDecay()) {
-						this.getCustomer(coneid).setProductAwareness(p, false);
-					}
-				}
-			}
+		this.decay(coneid, g, null);
+	}
+	
+	private void decay(int coneid, Randomizer r, GeometricSampler skips) {
+		CustomerState cs = this.customers;
+		long [] awareness = cs.getAwareness();
+		int words = cs.getAwarenessWords();
+		int purchase = cs.getPurchase(coneid);
+		for(int w = 0; w < words; w++){
+			long aware = awareness[coneid * words + w];
+			// The product being consumed by the customer is not forgotten.
+			if ((purchase >>> 6) == w)
+				aware &= ~(1L << purchase);
+			long forgotten = sampleProducts(aware, cs.getDecay(coneid), r, skips);
+			awareness[coneid * words + w] &= ~forgotten;
 		}
 	}
 	
 	public void wordOfMouth(){
-		for(int customer = 0; customer < this.getCustomers().length; customer++) {
-			Customer c = this.getCustomer(customer);
-			if (c.isSeed()) {
-				for(int contact = 0; contact < c.getContacts().length; contact++) {
-					if(!this.getCustomer(c.getContactId(contact)).getProductAwareness(this.products.length - 1)) {
-						this.getCustomer(c.getContactId(contact)).setProductAwareness(this.products.length - 1, true);
-					}
+		if (this.isSynchronous()){
+			this.synchronousWordOfMouth();
+			return;
+		}
+		CustomerState cs = this.customers;
+		int [] offsets = cs.getContactOffsets();
+		int [] contacts = cs.getContacts();
+		long [] awareness = cs.getAwareness();
+		int words = cs.getAwarenessWords();
+		int optimized = this.products.length - 1;
+		GeometricSampler skips = this.newSampler(this.maxAw, g);
+		for(int customer = 0; customer < cs.getNumCustomers(); customer++) {
+			if (cs.isSeed(customer)) {
+				// Seeds only talk about the optimized product.
+				for(int pos = offsets[customer]; pos < offsets[customer + 1]; pos++) {
+					awareness[contacts[pos] * words + (optimized >>> 6)] |= 1L << optimized;
 				}
 			}
 			else {
-				this.speak(c.getIdentifier());
+				this.speak(customer, skips);
 			}
 		}
 	}
 	
 	public void decayStage(){
-		for(int customer = 0; customer < this.getCustomers().length; customer++) {
-			if (!this.getCustomer(customer).isSeed()) {
-				this.decay(this.getCustomer(customer).getIdentifier());
+		if (this.isSynchronous()){
+			this.synchronousDecayStage();
+			return;
+		}
+		CustomerState cs = this.customers;
+		GeometricSampler skips = this.newSampler(this.maxDecay, g);
+		for(int customer = 0; customer < cs.getNumCustomers(); customer++) {
+			if (!cs.isSeed(customer)) {
+				this.decay(customer, g, skips);
 			}
 		}
 	}
 	
+	/* --------- Synchronous update mode ---------- */
+	// The customers are split in chunks of UPDATE_CHUNK customers which are processed in 
+	// parallel. A chunk only writes the state of its own customers, and the random numbers of 
+	// each chunk come from a stream seeded with the replica seed, the number of the phase and 
+	// the number of the chunk, so the results are reproducible whatever the number of threads.
+	
+	/**
+	 * Process over the customers [from, to) of a chunk.
+	 */
+	private interface ChunkTask {
+		void run(int chunk, int from, int to, Randomizer r);
+	}
+	
+	private void forEachChunk(final ChunkTask task){
+		final long phase = this.streamPhase++;
+		final int numCustomers = this.getNumCustomers();
+		int numChunks = (numCustomers + UPDATE_CHUNK - 1) / UPDATE_CHUNK;
+		
+		if (this.updateThreads <= 1 || numChunks <= 1){
+			for(int chunk = 0; chunk < numChunks; chunk++){
+				task.run(chunk, chunk * UPDATE_CHUNK, Math.min(numCustomers, (chunk + 1) * UPDATE_CHUNK), 
+						this.chunkRandomizer(phase, chunk));
+			}
+		}
+		else {
+			ForkJoinPool pool = this.getUpdatePool();
+			List<ForkJoinTask<?>> tasks = new ArrayList<>(numChunks);
+			for(int chunk = 0; chunk < numChunks; chunk++){
+				final int c = chunk;
+				tasks.add(pool.submit(() -> task.run(c, c * UPDATE_CHUNK, Math.min(numCustomers, (c + 1) * UPDATE_CHUNK), 
+						this.chunkRandomizer(phase, c))));
+			}
+			for (ForkJoinTask<?> t: tasks) {
+				t.join();
+			}
+		}
+	}
+	
+	private Randomizer chunkRandomizer(long phase, int chunk){
+		long counter = (phase << 32) | chunk;
+		return RandomizerFactory.createRandomizer(RandomizerAlgorithm.XOR_SHIFT_128_PLUS_FAST, 
+				this.streamSeed ^ RandomizerUtils.computeMurmurHash3(counter + 1));
+	}
+	
+	private synchronized ForkJoinPool getUpdatePool(){
+		if (this.updatePool == null)
+			this.updatePool = new ForkJoinPool(this.updateThreads);
+		return this.updatePool;
+	}
+	
+	/**
+	 * Synchronous word of mouth. First every customer decides which of the products it is 
+	 * aware of it talks about (seeds only talk about the optimized product), and then every 
+	 * customer hears the products its contacts talk about. The awareness is read from the 
+	 * current buffer and written into the next one, which becomes the current one at the end.
+	 */
+	private void synchronousWordOfMouth(){
+		final CustomerState cs = this.customers;
+		final int words = cs.getAwarenessWords();
+		final int optimized = this.products.length - 1;
+		final long [] current = cs.getAwareness();
+		final long [] next = cs.getNextAwareness();
+		final long [] talks = this.getTalkMasks();
+		final boolean [] seeds = cs.getSeeds();
+		final double [] aws = cs.getAws();
+		final int [] offsets = cs.getContactOffsets();
+		final int [] contacts = cs.getContacts();
+		
+		this.forEachChunk((chunk, from, to, r) -> {
+			GeometricSampler skips = this.newSampler(this.maxAw, r);
+			for(int c = from; c < to; c++){
+				int row = c * words;
+				Arrays.fill(talks, row, row + words, 0L);
+				if (seeds[c]){
+					talks[row + (optimized >>> 6)] = 1L << optimized;
+				}
+				else {
+					for(int w = 0; w < words; w++){
+						talks[row + w] = sampleProducts(current[row + w], aws[c], r, skips);
+					}
+				}
+			}
+		});
+		this.forEachChunk((chunk, from, to, r) -> {
+			for(int c = from; c < to; c++){
+				int row = c * words;
+				for(int w = 0; w < words; w++){
+					long aware = current[row + w];
+					for(int pos = offsets[c]; pos < offsets[c + 1]; pos++){
+						aware |= talks[contacts[pos] * words + w];
+					}
+					next[row + w] = aware;
+				}
+			}
+		});
+		cs.swapAwareness();
+	}
+	
+	/**
+	 * Synchronous awareness decay. Each customer only forgets its own products, so the decay 
+	 * is applied in place.
+	 */
+	private void synchronousDecayStage(){
+		final boolean [] seeds = this.customers.getSeeds();
+		this.forEachChunk((chunk, from, to, r) -> {
+			GeometricSampler skips = this.newSampler(this.maxDecay, r);
+			for(int c = from; c < to; c++){
+				if (!seeds[c])
+					this.decay(c, r, skips);
+			}
+		});
+	}
+	
+	/**
+	 * Synchronous consumption. Every customer decides its purchase from the purchases of its 
+	 * contacts at the beginning of the step, and the decisions are applied once all the 
+	 * customers have decided.
+	 * @param utils Expected utilities.
+	 * @param uncts Expected uncertainties.
+	 */
+	private void synchronousConsumptionProcess(final double [] [] utils, final double [] [] uncts){
+		final CustomerState cs = this.customers;
+		final int [] purchases = cs.getPurchases();
+		final boolean [] seeds = cs.getSeeds();
+		final double [] umins = cs.getUmins();
+		final double [] unctts = cs.getUncts();
+		final int [] next = this.getNextPurchases();
+		final int numProducts = this.getProducts().length;
+		int numChunks = (cs.getNumCustomers() + UPDATE_CHUNK - 1) / UPDATE_CHUNK;
+		// Heuristics use and buyers of each chunk.
+		final int [] [] chunkhuse = new int [numChunks] [5];
+		
+		this.imitationWeight(0); // The weights table is built before the customers are split.
+		this.forEachChunk((chunk, from, to, r) -> {
+			double [] weights = new double [numProducts];
+			int [] huse = chunkhuse[chunk];
+			for(int c = from; c < to; c++){
+				next[c] = purchases[c];
+				if (seeds[c]){
+					huse[0] += 1;
+				}
+				else{
+					if (r.nextDouble() < this.getBuyProb()){
+						double utility = utils [c] [purchases[c]];
+						double uncertainty = uncts [c] [purchases[c]];
+						
+						if (utility >= umins[c] && uncertainty <= unctts[c]){
+							huse[0] += 1;
+						}
+						else if (utility < umins[c] && uncertainty <= unctts[c]){
+							next[c] = this.deliberation(c, utils [c], weights, r);
+							huse[1] += 1;
+						}
+						else if (utility >= umins[c] && uncertainty > unctts[c]){
+							next[c] = this.imitation(c, weights, r);
+							huse[2] += 1;
+						}
+						else{
+							next[c] = this.socialComparison(c, utils [c], weights, r);
+							huse[3] += 1;
+						}
+						huse[4] += 1;
+					}
+				}
+			}
+		});
+		for(int c = 0; c < cs.getNumCustomers(); c++){
+			this.changePurchase(c, next[c]);
+		}
+		int [] huse = new int [4];
+		double conttruecustomers = 0;
+		for(int chunk = 0; chunk < numChunks; chunk++){
+			for(int h = 0; h < huse.length; h++){
+				huse[h] += chunkhuse[chunk][h];
+			}
+			conttruecustomers += chunkhuse[chunk][4];
+		}
+		this.metric.setMeanCustomers(conttruecustomers / (double) cs.getNumCustomers());
+		this.metric.setHeuristicsUse(huse);
+	}
+	
+	private int [] getNextPurchases(){
+		if (this.nextPurchases == null)
+			this.nextPurchases = new int [this.getNumCustomers()];
+		return this.nextPurchases;
+	}
+	
+	private long [] getTalkMasks(){
+		if (this.talkMasks == null)
+			this.talkMasks = new long [this.getNumCustomers() * this.customers.getAwarenessWords()];
+		return this.talkMasks;
+	}
+	
 	/* -------------- Engine ---------------------- */
 	public void run(){
 		
 		// Initializing the model.
 		this.setUpModel();
+		this.initializeSocialCounts();
+		this.metric.initializeShares(this.customers, this.getProducts().length - 1);
+		StepRecorder recorder = this.getRecorder();
+		if (recorder != null)
+			recorder.start(-1, null);
 		
-		// Structures for turbulence metric.
-		int [] pastchoices = new int [this.getCustomers().length];
-		int [] nextchoices = new int [this.getCustomers().length];
+		// Turbulence metric.
 		double turbulence = 0.0;
 		
 		// Variable for Gini coefficient.
 		double gini = 0.0;
 				
-		double [] [] utilities = new double [this.getCustomers().length] [this.getProducts().length];
-		double [] [] uncertainties = new double [this.getCustomers().length] [this.getProducts().length];
+		double [] [] utilities = new double [this.getNumCustomers()] [this.getProducts().length];
+		double [] [] uncertainties = new double [this.getNumCustomers()] [this.getProducts().length];
 		
 		// Time control.
 		double start;
@@ -699,7 +1441,7 @@ public class Market {
 				this.calculateutilsanduncts(utilities, uncertainties);
 			}
 			
-			this.setConsumptions(pastchoices); // Setting past choices. 
+			this.metric.startStep(); // Purchase changes of the step. 
 			
 			if (this.getExtended()){
 				this.wordOfMouth();
@@ -708,67 +1450,69 @@ public class Market {
 			
 			this.consumptionProcess(utilities, uncertainties);				
 			
-			this.setConsumptions(nextchoices); // Setting next choices.
-			
 			// Calculating turbulence.
-			turbulence += metric.calculateTurbulence(pastchoices, nextchoices);
+			double stepturbulence = metric.calculateTurbulence();
+			turbulence += stepturbulence;
 			// Calculating buy probabilities.
-			this.metric.setFinalBuyProb(this.getCustomers());
+			this.metric.setFinalBuyProb();
 			
-			this.calculateutilsanduncts(utilities, uncertainties);
+			this.updateutilsanduncts(utilities, uncertainties);
 			
 			// Calculating Gini coefficient using the last 10 executions.
 			if (step > this.getSteps() - 10)
-				gini += metric.calculateGini(this.getCustomers());
+				gini += metric.calculateGini();
 			
+			this.recordStep(recorder, step, stepturbulence, null);
 			end = System.currentTimeMillis();
 			total += (end - start) / 1000.0;
 		}
 		this.metric.setExecutionTime(total / (double) this.getSteps());
 		this.metric.setGini(gini / 10.0);
 		this.metric.setTurbulence(turbulence / (double) this.getSteps());
-		this.metric.setFinaBuys(this.getCustomers());
+		this.metric.setFinaBuys();
+		if (recorder != null)
+			recorder.flush();
 	}
 	/**------- Methods for viral marketing optimization ------------ */
-	private int [] selectSeeds(double [] metricweights){
+	/**
+	 * Selects the customers with the highest weighted sum of the normalized network metrics.
+	 * The weights follow the order of socialnetwork.NetworkMetrics.Metric (degree, two steps, 
+	 * clustering coefficient, betweenness, closeness, ...) and the last value is the number 
+	 * of seeds. The metrics after the clustering coefficient are only calculated if their 
+	 * weight is not 0. The seeds are the k highest weighted sums (@see util.TopK), with 
+	 * ties broken in favour of the higher customer index.
+	 * @param metricweights Weights of the network metrics and number of seeds.
+	 * @return Selected seeds, from the highest weighted sum to the lowest.
+	 */
+	int [] selectSeeds(double [] metricweights){
 		double w = 0.0;
         int popsize = sn.getNumNodes();
+        Metric [] metrics = Metric.values();
+        int nummetrics = Math.min(metricweights.length - 1, metrics.length);
+        double [] [] normmetrics = new double [nummetrics] [];
+        for(int m = 0; m < nummetrics; m++){
+        	if (m <= Metric.CLUSTERING.ordinal() || metricweights [m] != 0.0)
+        		normmetrics [m] = sn.getNetworkMetrics().getNormMetric(metrics [m]);
+        }
 	
-        Map<Integer, Double> seedQueue = new TreeMap<>();
+        double [] scores = new double [popsize];
         
         for(int node = 0; node < popsize; node++){
-            w = (metricweights [0] * sn.getNetworkMetrics().getNormNodeDegMetric(node) +  
-            	  metricweights [1] * sn.getNetworkMetrics().getNormNodeTstepsMetric(node) +
-            	  metricweights [2] * sn.getNetworkMetrics().getNormNodeCcMetric(node));
- 
-            seedQueue.put(node, w);
+            w = metricweights [0] * normmetrics [0] [node];
+            for(int m = 1; m < nummetrics; m++){
+            	if (normmetrics [m] != null)
+            		w += metricweights [m] * normmetrics [m] [node];
+            }
+            scores [node] = w;
         }
-        // Descending order. 
-		TreeMap<Integer, Double> sortedSeeds = new TreeMap<>(util.Util.sortByValue(seedQueue));
 		int toselect = (int) metricweights [metricweights.length - 1];
 		
-		int [] selected = new int [toselect];
-		int cont = 0; 
-		
-		for (Map.Entry<Integer, Double> entrySet : sortedSeeds.entrySet()) {
-		    if(cont < toselect){
-		    	selected [cont] = (entrySet.getKey());
-		        cont++;
-		    }
-		    else{
-		        break;
-		    }
-		}
-		// Removing unnecessary structures. 
-		seedQueue = null;
-		sortedSeeds = null; 
-		
-	    return selected;
+	    return TopK.select(scores, toselect);
 	}
 	
 	/**------- Methods for viral marketing optimization ------------ */
 	private int [] selectSeedsAtRandom(int numSeeds){
-		int [] customers = new int [this.getCustomers().length];
+		int [] customers = new int [this.getNumCustomers()];
 		for(int i=0; i < this.getCustomers().length; i++) {
 			customers[i] = i; 
 		}
@@ -777,27 +1521,28 @@ public class Market {
 		System.arraycopy(customers, 0, selected, 0, numSeeds);
 		return selected;
 	}
-	private double [] NPV(int day, int [] lastElection){
-		int numadopters = 0;
-		int numseeds = 0;
-		
+	/**
+	 * NPV of a step: benefits of the customers who adopted the optimized product in the step 
+	 * and costs of the seeds. Both are read from the live counters of the indicators (seeds 
+	 * never change their purchase, so the adopters of the step are not seeds).
+	 * @param day Step.
+	 * @return NPV (benefits and costs if multiobjective).
+	 */
+	private double [] NPV(int day){
+		return this.NPV(day, this.metric.getStepAdopters(), this.metric.getNumSeeds());
+	}
+	
+	/**
+	 * NPV of a step.
+	 * @param day Step.
+	 * @param numadopters New adopters of the optimized product in the step (it may be a mean).
+	 * @param numseeds Number of seeds.
+	 * @return NPV (benefits and costs in the multiobjective model).
+	 */
+	private double [] NPV(int day, double numadopters, int numseeds){
 		double [] npv; 
-		int counter = 0;
-		for(Customer c: this.getCustomers()){
-			if(c.isSeed()){
-				numseeds += 1;
-			}
-			else{
-				if (lastElection[counter] != (this.getProducts().length - 1)){
-					if(c.getPurchase() == (this.getProducts().length - 1)){
-						numadopters += 1;
-					}
-				}
-			}
-			counter++;
-		}	
 		
-		double benfs = (double) numadopters * Math.pow(0.9, (day));
+		double benfs = numadopters * Math.pow(0.9, (day));
 		double costs = ((double) numseeds * (1.0/8.0)) * Math.pow(0.9, (day));
 		
 		if (this.mo){
@@ -811,12 +1556,191 @@ public class Market {
 		}
 		return npv;
 	}
-	public double [] run(double [] metricweights){
+	/**
+	 * Initializes the model of a Monte Carlo replica, restoring its initial state if it has 
+	 * been kept in a previous evaluation.
+	 * @param mc Replica number.
+	 */
+	private void setUpReplica(int mc){
+		this.setUpRandomGenerator(mc);
+		if (!this.replicaSnapshots || !(g instanceof XorShift128PlusFastPRNG)){
+			this.setUpModel();
+			return;
+		}
+		ReplicaSnapshot snapshot = this.snapshots.get(mc);
+		if (snapshot == null){
+			this.setUpModel();
+			this.snapshots.putIfAbsent(mc, new ReplicaSnapshot(this.customers, this.products, 
+					(XorShift128PlusFastPRNG) g, this.maxAw, this.maxDecay));
+		}
+		else {
+			snapshot.restore(this.customers, this.products);
+			g = snapshot.newGenerator();
+			this.maxAw = snapshot.getMaxAw();
+			this.maxDecay = snapshot.getMaxDecay();
+		}
+	}
+	/**
+	 * Simulates a single Monte Carlo replica of the viral marketing campaign. 
+	 * @param mc Replica number, which selects the seed of the random number generator.
+	 * @param metricweights Weights of the network metrics and number of seeds.
+	 * @return NPV obtained in each step of the simulation (step 0 is not used).
+	 */
+	double [] [] runReplica(int mc, double [] metricweights){
+		return this.runReplica(mc, metricweights, null);
+	}
+	/**
+	 * Simulates a single Monte Carlo replica of the viral marketing campaign. 
+	 * @param mc Replica number, which selects the seed of the random number generator.
+	 * @param metricweights Weights of the network metrics and number of seeds.
+	 * @param seeds Seeds selected from the network metrics (null to select them, or to 
+	 * select them at random if the seed selection is random).
+	 * @return NPV obtained in each step of the simulation (step 0 is not used).
+	 */
+	double [] [] runReplica(int mc, double [] metricweights, int [] seeds){
+		double [] [] increments = new double [this.getSteps()] [];
 		
-		// Time control.
-//		double start;
-//		double end;
-//		double total = 0.0;
+		// Initializing the model.
+		this.setUpReplica(mc);
+		int cs = 0;
+		int [] selectedSeeds; 
+		
+		if(this.isRandomSeedSelection()) {
+			selectedSeeds = selectSeedsAtRandom((int)metricweights[metricweights.length - 1]);
+		}
+		else if (seeds != null) {
+			selectedSeeds = seeds;
+		}
+		else {
+			selectedSeeds = selectSeeds(metricweights);
+		}
+		// If we will optimize the model we need to initialize the seeds
+		for (Integer seed: selectedSeeds){
+			this.customers.setSeed(seed);
+			this.customers.setPurchase(seed, this.getProducts().length - 1);
+			cs++;
+		}
+		this.initializeSocialCounts();
+		this.metric.initializeShares(this.customers, this.getProducts().length - 1);
+		StepRecorder recorder = this.getRecorder();
+		if (recorder != null)
+			recorder.start(mc, metricweights);
+		
+		// Turbulence metric.
+		double turbulence = 0.0;
+		
+		// Stationary steps in a row (early stopping), their new adopters and the last share.
+		int stationarySteps = 0;
+		int stationaryAdopters = 0;
+		int trackedShare = this.metric.getShares()[this.getProducts().length - 1];
+		
+		// Variable for Gini coefficient.
+		double gini = 0.0;
+				
+		double [] [] utilities = new double [this.getNumCustomers()] [this.getProducts().length];
+		double [] [] uncertainties = new double [this.getNumCustomers()] [this.getProducts().length];
+		this.metric.setFinaBuys();
+
+		for(int step = 1; step < this.getSteps(); step++){
+			if(step == 1){
+				this.calculateutilsanduncts(utilities, uncertainties);
+			}
+			
+			this.metric.startStep(); // Purchase changes of the step. 
+			
+			if (this.getExtended()){
+				this.wordOfMouth();
+				this.decayStage();
+			}
+
+			if ((step % stationality) == 0){
+				this.consumptionProcess(utilities, uncertainties);				
+			}
+			
+			this.metric.setFinaBuys();
+
+			// Calculating turbulence.
+			double stepturbulence = metric.calculateTurbulence();
+			turbulence += stepturbulence;
+			// Calculating buy probabilities.
+			this.metric.setFinalBuyProb();
+			
+			this.updateutilsanduncts(utilities, uncertainties);
+			
+			// Calculating Gini coefficient using the last 10 executions.
+			if (step > this.getSteps() - 10)
+				gini += metric.calculateGini();
+			
+			// Calculating NPV
+			increments[step] = this.NPV(step);
+			this.recordStep(recorder, step, stepturbulence, increments[step]);
+			
+			if (this.earlyStopping){
+				int share = this.metric.getShares()[this.getProducts().length - 1];
+				if (stepturbulence <= this.stationaryTurbulence 
+						&& Math.abs(share - trackedShare) <= this.stationaryShare * this.getNumCustomers()){
+					stationarySteps++;
+					stationaryAdopters += this.metric.getStepAdopters();
+				}
+				else {
+					stationarySteps = 0;
+					stationaryAdopters = 0;
+				}
+				trackedShare = share;
+				if (stationarySteps >= Math.max(this.stationaryWindow, stationality) && step < this.getSteps() - 1){
+					// The remaining steps keep the mean new adopters of the window.
+					double adopters = (double) stationaryAdopters / (double) stationarySteps;
+					for(int day = step + 1; day < this.getSteps(); day++){
+						increments[day] = this.NPV(day, adopters, this.metric.getNumSeeds());
+					}
+					break;
+				}
+			}
+		}
+		if (recorder != null)
+			recorder.flush();
+		return increments;
+	}
+	
+	/**
+	 * Simulates the Monte Carlo replicas concurrently. Each replica runs on a worker market 
+	 * with its own customers and random number generator seeded with SeedContainer.getSeed(mc).
+	 * @param metricweights Weights of the network metrics and number of seeds.
+	 * @param seeds Seeds of the replicas (null to select them in each replica).
+	 * @param increments Output: NPV per step of each replica.
+	 * @param from First replica.
+	 * @param to Last replica (exclusive).
+	 */
+	private void runReplicasInParallel(final double [] metricweights, final int [] seeds, final double [] [] [] increments, 
+			int from, int to){
+		ForkJoinPool pool = this.getMCPool();
+		List<ForkJoinTask<?>> tasks = new ArrayList<>(to - from);
+		for(int mc = from; mc < to; mc++) {
+			final int replica = mc;
+			tasks.add(pool.submit(() -> {
+				Market worker = this.replicaWorkers.poll();
+				if (worker == null)
+					worker = new Market(this);
+				try {
+					increments[replica] = worker.runReplica(replica, metricweights, seeds);
+				}
+				finally {
+					this.replicaWorkers.offer(worker);
+				}
+			}));
+		}
+		for (ForkJoinTask<?> task: tasks) {
+			task.join();
+		}
+	}
+	
+	private synchronized ForkJoinPool getMCPool(){
+		if (this.mcPool == null)
+			this.mcPool = new ForkJoinPool(this.mcThreads);
+		return this.mcPool;
+	}
+	
+	public double [] run(double [] metricweights){
 		
 		// NPV variable.
 		double [] NPV;
@@ -825,110 +1749,157 @@ public class Market {
 			NPV = new double [2];
 		else
 			NPV = new double [1];
-					
-		for(int mc = 0; mc < numMC; mc++) {
-			// Initializing the model.
-			this.setUpRandomGenerator(mc);
-			this.setUpModel();
-			int cs = 0;
-			int [] selectedSeeds; 
-			
-			if(this.isRandomSeedSelection()) {
-				selectedSeeds = selectSeedsAtRandom((int)metricweights[metricweights.length - 1]);
-			}
-			else {
-				selectedSeeds = selectSeeds(metricweights);
+		
+		// The seeds only depend on the weights, so they are selected once for all the replicas.
+		int [] seeds = this.isRandomSeedSelection() ? null : this.selectSeeds(metricweights);
+		long confighash = 0L;
+		if (seeds != null && this.evaluationCache != null) {
+			confighash = this.getConfigurationHash();
+			double [] cached = this.evaluationCache.get(seeds, confighash);
+			if (cached != null) {
+				this.lastReplicas = 0;
+				this.printEvaluation(metricweights, cached);
+				return cached;
 			}
-			// If we will optimize the model we need to initialize the seeds
-			for (Integer seed: selectedSeeds){
-				this.getCustomer(seed).setSeed();
-				this.getCustomer(seed).setPurchase(this.getProducts().length - 1);
-				cs++;
+		}
+		
+		double [] [] [] increments = new double [numMC] [] [];
+		int replicas = numMC;
+		if (this.isAdaptiveMC()) {
+			replicas = this.runAdaptiveReplicas(metricweights, seeds, increments);
+		}
+		else if (this.isParallelMC() && numMC > 1) {
+			this.runReplicasInParallel(metricweights, seeds, increments, 0, numMC);
+		}
+		else {
+			for(int mc = 0; mc < numMC; mc++) {
+				increments[mc] = this.runReplica(mc, metricweights, seeds);
 			}
-			
-			// Structures for turbulence metric.
-			int [] pastchoices = new int [this.getCustomers().length];
-			int [] nextchoices = new int [this.getCustomers().length];
-			double turbulence = 0.0;
-			
-			// Variable for Gini coefficient.
-			double gini = 0.0;
-					
-			double [] [] utilities = new double [this.getCustomers().length] [this.getProducts().length];
-			double [] [] uncertainties = new double [this.getCustomers().length] [this.getProducts().length];
-			this.metric.setFinaBuys(this.getCustomers());
-
+		}
+		this.lastReplicas = replicas;
+		// The NPV is reduced in replica and step order whatever the execution mode is, 
+		// so both modes give the same result.
+		for(int mc = 0; mc < replicas; mc++) {
 			for(int step = 1; step < this.getSteps(); step++){
-				//System.out.println("Step " + step);
-				//start = System.currentTimeMillis();
-				if(step == 1){
-					this.calculateutilsanduncts(utilities, uncertainties);
-				}
-				
-				this.setConsumptions(pastchoices); // Setting past choices. 
-				
-				if (this.getExtended()){
-					this.wordOfMouth();
-					this.decayStage();
+				for(int v = 0; v < NPV.length; v++){
+					NPV[v] += increments[mc][step][v];
 				}
+			}
+		}
+		for(int v = 0; v < NPV.length; v++){
+			NPV[v] = NPV[v]/(double) replicas;
+		}
+		if (seeds != null && this.evaluationCache != null)
+			this.evaluationCache.put(seeds, confighash, NPV);
+		this.printEvaluation(metricweights, NPV);
+		
+		return NPV;
+	}
 	
-				if ((step % stationality) == 0){
-					this.consumptionProcess(utilities, uncertainties);				
+	/**
+	 * Simulates a range of Monte Carlo replicas of a campaign, so the evaluation of a campaign 
+	 * can be split in several stages (@see optimization.RacingSolutionListEvaluator). The 
+	 * replicas run concurrently if the parallel mode is enabled, and the ranges already 
+	 * simulated for the same seeds are taken from the evaluation cache.
+	 * @param metricweights Weights of the network metrics and number of seeds.
+	 * @param from First replica.
+	 * @param to Last replica (exclusive).
+	 * @return NPV of each replica of the range.
+	 */
+	public double [] [] runReplicas(double [] metricweights, int from, int to){
+		int [] seeds = this.isRandomSeedSelection() ? null : this.selectSeeds(metricweights);
+		long confighash = 0L;
+		if (seeds != null && this.evaluationCache != null) {
+			confighash = this.getConfigurationHash();
+			double [] [] cached = this.evaluationCache.getReplicas(seeds, confighash, from, to);
+			if (cached != null)
+				return cached;
+		}
+		double [] [] [] increments = new double [to] [] [];
+		if (this.isParallelMC() && to - from > 1) {
+			this.runReplicasInParallel(metricweights, seeds, increments, from, to);
+		}
+		else {
+			for(int mc = from; mc < to; mc++) {
+				increments[mc] = this.runReplica(mc, metricweights, seeds);
+			}
+		}
+		double [] [] NPV = new double [to - from] [this.mo ? 2 : 1];
+		for(int mc = from; mc < to; mc++) {
+			for(int step = 1; step < this.getSteps(); step++){
+				for(int v = 0; v < NPV[mc - from].length; v++){
+					NPV[mc - from][v] += increments[mc][step][v];
 				}
-				
-				this.setConsumptions(nextchoices); // Setting next choices.
-				
-				this.metric.setFinaBuys(this.getCustomers());
+			}
+		}
+		if (seeds != null && this.evaluationCache != null)
+			this.evaluationCache.putReplicas(seeds, confighash, from, NPV);
+		return NPV;
+	}
 	
-				// Calculating turbulence.
-				turbulence += metric.calculateTurbulence(pastchoices, nextchoices);
-				// Calculating buy probabilities.
-				this.metric.setFinalBuyProb(this.getCustomers());
-				
-				this.calculateutilsanduncts(utilities, uncertainties);
-				
-				// Calculating Gini coefficient using the last 10 executions.
-				if (step > this.getSteps() - 10)
-					gini += metric.calculateGini(this.getCustomers());
-				
-				//end = System.currentTimeMillis();
-				//System.out.println("Time step: " + (end - start) / 1000.0);
-				//total += (end - start) / 1000.0;
-				// Calculating NPV
-				
-				if (this.mo){
-					double [] values = this.NPV(step, pastchoices);
-					NPV[0] += values[0];
-					NPV[1] += values[1];
+	/**
+	 * Simulates the Monte Carlo replicas in batches until the confidence interval of the mean 
+	 * NPV (of every objective) is narrow enough, or until numMC replicas have been simulated.
+	 * The replicas are always the first ones, so the result does not depend on the execution 
+	 * mode either.
+	 * @param metricweights Weights of the network metrics and number of seeds.
+	 * @param seeds Seeds of the replicas (null to select them in each replica).
+	 * @param increments Output: NPV per step of each replica.
+	 * @return Number of replicas simulated.
+	 */
+	private int runAdaptiveReplicas(double [] metricweights, int [] seeds, double [] [] [] increments){
+		RunningStatistics [] stats = new RunningStatistics [this.mo ? 2 : 1];
+		for(int v = 0; v < stats.length; v++){
+			stats[v] = new RunningStatistics();
+		}
+		int replicas = 0;
+		while (replicas < numMC) {
+			int batch = replicas == 0 ? Math.max(2, mcMinReplicas) : Math.max(1, mcBatch);
+			int to = Math.min(numMC, replicas + batch);
+			if (this.isParallelMC() && to - replicas > 1) {
+				this.runReplicasInParallel(metricweights, seeds, increments, replicas, to);
+			}
+			else {
+				for(int mc = replicas; mc < to; mc++) {
+					increments[mc] = this.runReplica(mc, metricweights, seeds);
 				}
-				else{
-					NPV[0] += this.NPV(step, pastchoices)[0];
+			}
+			for(int mc = replicas; mc < to; mc++) {
+				for(int v = 0; v < stats.length; v++){
+					double npv = 0.0;
+					for(int step = 1; step < this.getSteps(); step++){
+						npv += increments[mc][step][v];
+					}
+					stats[v].add(npv);
 				}
 			}
+			replicas = to;
+			
+			boolean converged = true;
+			for(int v = 0; v < stats.length && converged; v++){
+				converged = stats[v].getHalfWidth(mcConfidence) <= mcTolerance * Math.abs(stats[v].getMean());
+			}
+			if (converged)
+				break;
+		}
+		return replicas;
+	}
+	
+	private void printEvaluation(double [] metricweights, double [] NPV){
+		// The line is printed at once as several markets may be evaluated concurrently.
+		StringBuilder line = new StringBuilder();
+		for (int m = 0; m < metricweights.length; m++) {
+			line.append(" | " + metricweights[m] + " | ");
 		}
-				
 		if (this.mo){
-			NPV[0] = NPV[0]/(double) numMC;
-			NPV[1] = NPV[1]/(double) numMC;
-			for (int m = 0; m < metricweights.length; m++) {
-				System.out.print(" | " + metricweights[m] + " | ");
-			}
-			System.out.println(" --> | Benefits " + NPV[0] + " | " + " Costs " + NPV[1] + " | ");
+			line.append(" --> | Benefits " + NPV[0] + " | " + " Costs " + NPV[1] + " | ");
 		}
 		else{
-			NPV[0] = NPV[0]/(double) numMC;
-			for (int m = 0; m < metricweights.length; m++) {
-				System.out.print(" | " + metricweights[m] + " | ");
-			}
-			System.out.println(" --> Benefits " + NPV[0] + " | ");
+			line.append(" --> Benefits " + NPV[0] + " | ");
 		}
-		//this.metric.setExecutionTime(total);
-		//this.metric.setGini(gini / 10.0);
-		//this.metric.setTurbulence(turbulence / (double) this.getSteps());
-		//this.metric.setFinaBuys(this.getCustomers());
-		
-		
-		return NPV;
+		if (this.isAdaptiveMC())
+			line.append(" Replicas " + this.lastReplicas + " | ");
+		System.out.println(line);
 	}
 	/* ----------- Display Methods -------------------*/
 	public void display(){
@@ -936,7 +1907,7 @@ public class Market {
 		System.out.println("| ---------- Market model simulation ------------- |");
 		System.out.println("| -- This simulation uses a social network with the following structure and values --- |");
 		this.getSocialNetwork().displayInformation();
-		System.out.println("| -- In the market there are " + this.getCustomers().length + " customers --|");
+		System.out.println("| -- In the market there are " + this.getNumCustomers() + " customers --|");
 		System.out.println("| -- ** Where " + this.metric.getMeanCustomers() + " perform as customers --|");
 		System.out.println("| -- There are " + this.getProducts().length + " products involved in the market --|");
 		
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2017 Juan Francisco Robles Fuentes.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package model;
+
+import java.util.Arrays;
+
+/**
+ * @author Juan Francisco Robles Fuentes.
+ */
+
+/**
+ * NeighbourCounts class.
+ *
+ * Incremental table with the number of contacts of each customer consuming each product.
+ * It replaces the scan of the neighbourhoods that the market needs to compute the social
+ * part of the expected utilities: the table is built once per simulation and afterwards it
+ * is only updated when a customer changes its purchase, so the cost of a step depends on the
+ * number of purchase changes instead of on the size of the network. The customers whose
+ * counts change are recorded in a set of dirty customers (@see model.DirtyCustomers), so
+ * only their utilities need to be calculated again.
+ *
+ * Tables (row-major, position c * numProducts + p):
+ *   -> counts - Number of contacts of customer c consuming product p.
+ *   -> closeFriends - Number of contacts of customer c whose preference for product p is in
+ *   a range of +- 0.2 from the preference of c. Preferences do not change during a simulation
+ *   so this table is static.
+ */
+
+public class NeighbourCounts {
+
+	/** Maximum difference of preferences between close friends. */
+	public static final double CLOSE_FRIENDS_RANGE = 0.2;
+
+	private final CustomerState customers;
+	private final int numProducts;
+	private final int [] counts;
+	private final int [] closeFriends;
+	private final DirtyCustomers dirty;
+
+	/* ----------------- Constructors -------------------- */
+
+	public NeighbourCounts(CustomerState customers){
+		this.customers = customers;
+		this.numProducts = customers.getNumProducts();
+		this.counts = new int [customers.getNumCustomers() * this.numProducts];
+		this.closeFriends = new int [customers.getNumCustomers() * this.numProducts];
+		this.dirty = new DirtyCustomers(customers.getNumCustomers());
+	}
+
+	/* ---------------- Methods -------------------------- */
+
+	/**
+	 * Builds the tables from the current purchases and preferences of the customers.
+	 * @param closeProducts Products for which the close friends must be counted (low
+	 * visibility products), or null if none.
+	 */
+	public void initialize(boolean [] closeProducts){
+		int [] offsets = this.customers.getContactOffsets();
+		int [] contacts = this.customers.getContacts();
+		int [] purchases = this.customers.getPurchases();
+		double [] preferences = this.customers.getPreferences();
+
+		Arrays.fill(this.counts, 0);
+		Arrays.fill(this.closeFriends, 0);
+		this.dirty.clear();
+		for(int c = 0; c < this.customers.getNumCustomers(); c++){
+			int row = c * this.numProducts;
+			for(int pos = offsets[c]; pos < offsets[c + 1]; pos++){
+				this.counts[row + purchases[contacts[pos]]] += 1;
+			}
+			if (closeProducts != null){
+				for(int p = 0; p < this.numProducts; p++){
+					if (closeProducts[p]){
+						double preference = preferences[row + p];
+						int close = 0;
+						for(int pos = offsets[c]; pos < offsets[c + 1]; pos++){
+							if (Math.abs(preference - preferences[contacts[pos] * this.numProducts + p]) <= CLOSE_FRIENDS_RANGE)
+								close += 1;
+						}
+						this.closeFriends[row + p] = close;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Updates the counts of the contacts of a customer who changed its purchase and marks
+	 * them as dirty.
+	 * @param cid Customer identifier.
+	 * @param oldPurchase Product consumed before the change.
+	 * @param newPurchase Product consumed after the change.
+	 */
+	public void update(int cid, int oldPurchase, int newPurchase){
+		if (oldPurchase == newPurchase)
+			return;
+		int [] offsets = this.customers.getContactOffsets();
+		int [] contacts = this.customers.getContacts();
+		for(int pos = offsets[cid]; pos < offsets[cid + 1]; pos++){
+			int contact = contacts[pos];
+			int row = contact * this.numProducts;
+			this.counts[row + oldPurchase] -= 1;
+			this.counts[row + newPurchase] += 1;
+			this.dirty.mark(contact);
+		}
+	}
+
+	/**
+	 * Get the customers whose counts changed since the set was last cleared.
+	 * @return Dirty customers.
+	 */
+	public DirtyCustomers getDirtyCustomers(){
+		return this.dirty;
+	}
+
+	public int getCount(int cid, int pid){
+		return this.counts[cid * this.numProducts + pid];
+	}
+
+	public int getCloseFriends(int cid, int pid){
+		return this.closeFriends[cid * this.numProducts + pid];
+	}
+
+	/**
+	 * Get the counts table (row-major). It must not be modified.
+	 * @return Counts.
+	 */
+	public int [] getCounts(){
+		return this.counts;
+	}
+}
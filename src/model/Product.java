@@ -46,8 +46,52 @@ package model;
 
 public class Product {
 	
+	/**
+	 * Visibility levels of the products (@see the class description). The code of each 
+	 * level is the value used in the configuration files (prod_visibility).
+	 */
+	public enum Visibility {
+		LOW(0, "low"), 
+		NORMAL(1, "normal"), 
+		HIGH(2, "high");
+		
+		private final int code;
+		private final String label;
+		
+		private Visibility(int code, String label){
+			this.code = code;
+			this.label = label;
+		}
+		
+		public int getCode(){
+			return this.code;
+		}
+		
+		public static Visibility fromCode(int code){
+			if (code == 0)
+				return LOW;
+			else if (code == 1)
+				return NORMAL;
+			else
+				return HIGH;
+		}
+		
+		public static Visibility fromLabel(String label){
+			for(Visibility v: values()){
+				if (v.label.equals(label))
+					return v;
+			}
+			throw new IllegalArgumentException("Undefined product visibility: " + label);
+		}
+		
+		@Override
+		public String toString(){
+			return this.label;
+		}
+	}
+	
 	private String name;
-	private String visibility; 
+	private Visibility visibility; 
 	private double quality;
 	
 	/* ------------- Constructors ------------------*/
@@ -57,7 +101,7 @@ public class Product {
 	
 	public Product(String pn, String pv, double pq){
 		this.name = pn;
-		this.visibility = pv;
+		this.visibility = Visibility.fromLabel(pv);
 		this.quality = pq;
 	}
 	
@@ -68,12 +112,11 @@ public class Product {
 	}
 	
 	public void setVisibility(int pv){
-		if (pv == 0)
-			this.visibility = "low";
-		else if (pv == 1)
-			this.visibility = "normal";
-		else
-			this.visibility = "high";
+		this.visibility = Visibility.fromCode(pv);
+	}
+	
+	public void setVisibility(Visibility pv){
+		this.visibility = pv;
 	}
 	
 	public void setQuality(double pq){
@@ -84,7 +127,7 @@ public class Product {
 		return this.name;
 	}
 	
-	public String getVisibility(){
+	public Visibility getVisibility(){
 		return this.visibility;
 	}
 	
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2017 Juan Francisco Robles Fuentes.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package model;
+
+import java.util.Arrays;
+
+import util.random.Randomizer;
+import util.random.XorShift128PlusFastPRNG;
+
+/**
+ * @author Juan Francisco Robles Fuentes.
+ */
+
+/**
+ * ReplicaSnapshot class.
+ *
+ * Initial state of a Monte Carlo replica, as left by Market.setUpModel before the seeds are
+ * selected: the columns of the customers (@see model.CustomerState), the products and the
+ * state of the random number generator. The initial state only depends on the seed of the
+ * replica, so it is built once and restored (copying the arrays) in the next evaluations
+ * of the replica, whatever the seeds of the campaign are.
+ *
+ * A snapshot is not modified once it is built, so it can be restored by several markets
+ * (and threads) at the same time.
+ */
+
+public class ReplicaSnapshot {
+
+	private final int [] purchase;
+	private final double [] socialPreference;
+	private final double [] umin;
+	private final double [] unct;
+	private final double [] aw;
+	private final double [] awd;
+	private final double [] preferences;
+	private final long [] awareness;
+	private final Product [] products;
+	private final XorShift128PlusFastPRNG generator;
+	private final double maxAw;
+	private final double maxDecay;
+
+	/* ----------------- Constructors -------------------- */
+
+	/**
+	 * Takes the snapshot of the initial state of a replica.
+	 * @param cs Customers.
+	 * @param products Products (they are not modified during the simulations).
+	 * @param generator Random number generator after the initialization.
+	 * @param maxAw Highest word of mouth probability of the customers.
+	 * @param maxDecay Highest decay probability of the customers.
+	 */
+	public ReplicaSnapshot(CustomerState cs, Product [] products, XorShift128PlusFastPRNG generator,
+			double maxAw, double maxDecay){
+		this.purchase = cs.getPurchases().clone();
+		this.socialPreference = cs.getSocialPreferences().clone();
+		this.umin = cs.getUmins().clone();
+		this.unct = cs.getUncts().clone();
+		this.aw = cs.getAws().clone();
+		this.awd = cs.getDecays().clone();
+		this.preferences = cs.getPreferences().clone();
+		this.awareness = cs.getAwareness().clone();
+		this.products = products.clone();
+		this.generator = new XorShift128PlusFastPRNG(generator);
+		this.maxAw = maxAw;
+		this.maxDecay = maxDecay;
+	}
+
+	/* ---------------- Methods -------------------------- */
+
+	/**
+	 * Restores the customers and products of the snapshot (no customer is seed).
+	 * @param cs Customers.
+	 * @param ps Products.
+	 */
+	public void restore(CustomerState cs, Product [] ps){
+		System.arraycopy(this.purchase, 0, cs.getPurchases(), 0, this.purchase.length);
+		Arrays.fill(cs.getSeeds(), false);
+		System.arraycopy(this.socialPreference, 0, cs.getSocialPreferences(), 0, this.socialPreference.length);
+		System.arraycopy(this.umin, 0, cs.getUmins(), 0, this.umin.length);
+		System.arraycopy(this.unct, 0, cs.getUncts(), 0, this.unct.length);
+		System.arraycopy(this.aw, 0, cs.getAws(), 0, this.aw.length);
+		System.arraycopy(this.awd, 0, cs.getDecays(), 0, this.awd.length);
+		System.arraycopy(this.preferences, 0, cs.getPreferences(), 0, this.preferences.length);
+		System.arraycopy(this.awareness, 0, cs.getAwareness(), 0, this.awareness.length);
+		System.arraycopy(this.products, 0, ps, 0, this.products.length);
+	}
+
+	/**
+	 * Creates a random number generator in the state of the snapshot.
+	 * @return Random number generator.
+	 */
+	public Randomizer newGenerator(){
+		return new XorShift128PlusFastPRNG(this.generator);
+	}
+
+	public double getMaxAw(){
+		return this.maxAw;
+	}
+
+	public double getMaxDecay(){
+		return this.maxDecay;
+	}
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2017 Juan Francisco Robles Fuentes.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Juan Francisco Robles Fuentes.
+ */
+
+/**
+ * StepRecorder class.
+ *
+ * Recorder of the time series of a simulation. For each step it keeps the market shares,
+ * the turbulence, the use of the heuristics, the number of customers aware of each product
+ * and the NPV increment in preallocated buffers of a fixed number of steps, and writes them
+ * to a binary file (@see model.StepRecorder.Output) when the buffers are full and when the
+ * simulation finishes.
+ *
+ * File format (little-endian). A header:
+ *   -> magic - 8 bytes "TGETSTEP".
+ *   -> version, numProducts, numCustomers, heuristics, npvWidth - ints.
+ * followed by blocks of consecutive steps of a simulation, each one with:
+ *   -> runId - long. Identifier of the simulation (unique in the file).
+ *   -> replica - int. Monte Carlo replica (-1 if the simulation is not a replica).
+ *   -> numWeights - int, and the weights of the campaign (numWeights doubles).
+ *   -> numSteps - int.
+ *   -> step - numSteps ints.
+ *   -> shares - numProducts columns of numSteps ints (customers consuming each product).
+ *   -> turbulence - numSteps doubles.
+ *   -> heuristics use - heuristics columns of numSteps ints (repetition, deliberation,
+ *   imitation and social comparison).
+ *   -> awareness - numProducts columns of numSteps ints (customers aware of each product).
+ *   -> npv - npvWidth columns of numSteps doubles (NPV increment of the step, or benefits
+ *   and costs if multiobjective).
+ * The blocks of different simulations may be interleaved when several markets share the file.
+ */
+
+public class StepRecorder {
+
+	public static final String MAGIC = "TGETSTEP";
+	public static final int VERSION = 1;
+	public static final int HEURISTICS = 4;
+
+	private final Output output;
+	private final int numProducts;
+	private final int npvWidth;
+	private final int capacity;
+
+	// Buffers (column c of step s in position c * capacity + s).
+	private final int [] steps;
+	private final int [] shares;
+	private final double [] turbulence;
+	private final int [] heuristics;
+	private final int [] awareness;
+	private final double [] npv;
+	private int size;
+
+	private long runId;
+	private int replica;
+	private double [] weights;
+	private ByteBuffer block;
+
+	/* ----------------- Constructors -------------------- */
+
+	/**
+	 * @param output File where the series are written.
+	 * @param capacity Number of steps kept before writing them.
+	 */
+	public StepRecorder(Output output, int capacity){
+		this.output = output;
+		this.numProducts = output.numProducts;
+		this.npvWidth = output.npvWidth;
+		this.capacity = capacity;
+		this.steps = new int [capacity];
+		this.shares = new int [this.numProducts * capacity];
+		this.turbulence = new double [capacity];
+		this.heuristics = new int [HEURISTICS * capacity];
+		this.awareness = new int [this.numProducts * capacity];
+		this.npv = new double [this.npvWidth * capacity];
+		this.weights = new double [0];
+	}
+
+	/* ---------------- Methods -------------------------- */
+
+	/**
+	 * Starts the series of a new simulation.
+	 * @param replica Monte Carlo replica (-1 if the simulation is not a replica).
+	 * @param weights Weights of the campaign (may be null).
+	 */
+	public void start(int replica, double [] weights){
+		this.runId = this.output.nextRunId();
+		this.replica = replica;
+		this.weights = weights == null ? new double [0] : Arrays.copyOf(weights, weights.length);
+		this.size = 0;
+	}
+
+	/**
+	 * Records a step, writing the buffers if they are full.
+	 * @param step Step.
+	 * @param stepShares Customers consuming each product.
+	 * @param stepTurbulence Turbulence of the step.
+	 * @param stepHeuristics Use of each heuristic in the step.
+	 * @param stepAwareness Customers aware of each product.
+	 * @param stepNPV NPV increment of the step (null if there is not NPV).
+	 */
+	public void record(int step, int [] stepShares, double stepTurbulence, int [] stepHeuristics,
+			int [] stepAwareness, double [] stepNPV){
+		int s = this.size;
+		this.steps[s] = step;
+		for(int p = 0; p < this.numProducts; p++){
+			this.shares[p * this.capacity + s] = stepShares[p];
+			this.awareness[p * this.capacity + s] = stepAwareness[p];
+		}
+		this.turbulence[s] = stepTurbulence;
+		for(int h = 0; h < HEURISTICS; h++){
+			this.heuristics[h * this.capacity + s] = stepHeuristics[h];
+		}
+		for(int v = 0; v < this.npvWidth; v++){
+			this.npv[v * this.capacity + s] = stepNPV == null ? Double.NaN : stepNPV[v];
+		}
+		this.size += 1;
+		if (this.size == this.capacity)
+			this.flush();
+	}
+
+	/**
+	 * Writes the recorded steps of the current simulation.
+	 */
+	public void flush(){
+		if (this.size == 0)
+			return;
+		int n = this.size;
+		int bytes = Long.BYTES + 3 * Integer.BYTES + this.weights.length * Double.BYTES
+				+ n * ((1 + 2 * this.numProducts + HEURISTICS) * Integer.BYTES + (1 + this.npvWidth) * Double.BYTES);
+		if (this.block == null || this.block.capacity() < bytes)
+			this.block = ByteBuffer.allocateDirect(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		ByteBuffer b = this.block;
+		b.clear();
+		b.putLong(this.runId);
+		b.putInt(this.replica);
+		b.putInt(this.weights.length);
+		for(double w: this.weights){
+			b.putDouble(w);
+		}
+		b.putInt(n);
+		for(int s = 0; s < n; s++){
+			b.putInt(this.steps[s]);
+		}
+		putColumns(b, this.shares, this.numProducts, this.capacity, n);
+		for(int s = 0; s < n; s++){
+			b.putDouble(this.turbulence[s]);
+		}
+		putColumns(b, this.heuristics, HEURISTICS, this.capacity, n);
+		putColumns(b, this.awareness, this.numProducts, this.capacity, n);
+		for(int v = 0; v < this.npvWidth; v++){
+			for(int s = 0; s < n; s++){
+				b.putDouble(this.npv[v * this.capacity + s]);
+			}
+		}
+		b.flip();
+		this.output.write(b);
+		this.size = 0;
+	}
+
+	private static void putColumns(ByteBuffer b, int [] columns, int numColumns, int capacity, int n){
+		for(int c = 0; c < numColumns; c++){
+			for(int s = 0; s < n; s++){
+				b.putInt(columns[c * capacity + s]);
+			}
+		}
+	}
+
+	/**
+	 * Binary file shared by the recorders of a market and its workers. The blocks are
+	 * appended atomically, so the recorders may write from different threads.
+	 */
+	public static class Output implements Closeable {
+
+		private final FileChannel channel;
+		private final int numProducts;
+		private final int npvWidth;
+		private final AtomicLong runIds = new AtomicLong();
+
+		/**
+		 * Creates (or truncates) the file and writes its header.
+		 * @param path File path.
+		 * @param numProducts Number of products of the market.
+		 * @param numCustomers Number of customers of the market.
+		 * @param npvWidth Number of NPV values of each step.
+		 * @throws IOException If the file can not be written.
+		 */
+		public Output(String path, int numProducts, int numCustomers, int npvWidth) throws IOException{
+			this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			this.numProducts = numProducts;
+			this.npvWidth = npvWidth;
+
+			ByteBuffer header = ByteBuffer.allocate(MAGIC.length() + 5 * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			header.put(MAGIC.getBytes(StandardCharsets.US_ASCII));
+			header.putInt(VERSION);
+			header.putInt(numProducts);
+			header.putInt(numCustomers);
+			header.putInt(HEURISTICS);
+			header.putInt(npvWidth);
+			header.flip();
+			this.write(header);
+		}
+
+		private long nextRunId(){
+			return this.runIds.getAndIncrement();
+		}
+
+		private synchronized void write(ByteBuffer b){
+			try {
+				while (b.hasRemaining()){
+					this.channel.write(b);
+				}
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		}
+
+		@Override
+		public synchronized void close() throws IOException{
+			this.channel.close();
+		}
+	}
+}
@@ -10,13 +10,16 @@ import configuration.Reader;
 import model.Market;
 import socialnetwork.NetworkMetrics;
 
-public class MOTargetingProblem extends AbstractDoubleProblem{
+public class MOTargetingProblem extends AbstractDoubleProblem implements RacingProblem {
 	
 	/**
 	 * 
 	 */
 	private static final long serialVersionUID = 1L;
 	private final Market market;
+	// Per-thread markets. They share the social network and metrics of market, so
+	// the problem can be evaluated from several threads at the same time.
+	private final transient ThreadLocal<Market> workers;
 	
 	public MOTargetingProblem(){
 		this(4, "MOTargetingViralMarketing");
@@ -30,6 +33,7 @@ public class MOTargetingProblem extends AbstractDoubleProblem{
 	    Reader reader = new Reader(paramsfile);
 	    
 	    this.market = new Market(paramsfile);
+	    this.workers = ThreadLocal.withInitial(this.market::newWorker);
 		
 		double maxTargets = (double) this.market.getSocialNetwork().getNumNodes() * reader.getParameterDouble("targets_ratio");
 		
@@ -50,23 +54,35 @@ public class MOTargetingProblem extends AbstractDoubleProblem{
 	}
 	@Override
 	public void evaluate(DoubleSolution solution) {
-
-		double wd = solution.getVariableValue(0);
-		double w2s = solution.getVariableValue(1);
-		double wcc = solution.getVariableValue(2);
-		double fs = solution.getVariableValue(3);
-		
-		//System.out.println("[ " + Double.toString(wd) + " -|- " + Double.toString(w2s) + 
-			//	" -|- " + Double.toString(wcc) + " -|- " + Integer.toString((int) fs) + " ]");
-		
-		double [] ws = new double [] {wd, w2s, wcc, fs};
-		
-		double [] NPV = market.run(ws);
-		
+		this.setObjectives(solution, workers.get().run(this.getWeights(solution)));
+	}
+	
+	@Override
+	public int getNumReplicas() {
+		return this.market.getNumMC();
+	}
+	
+	@Override
+	public double [] [] evaluateReplicas(DoubleSolution solution, int from, int to) {
+		return workers.get().runReplicas(this.getWeights(solution), from, to);
+	}
+	
+	@Override
+	public void setObjectives(DoubleSolution solution, double [] NPV) {
 		solution.setObjective(0, -1.0 * NPV[0]);
-		
 		solution.setObjective(1, NPV[1]);
-		
+	}
+	
+	/**
+	 * Weights of the network metrics (degree, two steps, clustering coefficient, ...) 
+	 * and number of seeds (@see model.Market.selectSeeds).
+	 */
+	private double [] getWeights(DoubleSolution solution) {
+		double [] ws = new double [getNumberOfVariables()];
+		for (int i = 0; i < ws.length; i++) {
+			ws[i] = solution.getVariableValue(i);
+		}
+		return ws;
 	}
 
 }
@@ -22,6 +22,7 @@ import org.uma.jmetal.operator.impl.mutation.PolynomialMutation;
 import org.uma.jmetal.operator.impl.mutation.SimpleRandomMutation;
 import org.uma.jmetal.operator.impl.selection.DifferentialEvolutionSelection;
 import org.uma.jmetal.operator.impl.selection.TournamentSelection;
+import org.uma.jmetal.problem.Problem;
 import org.uma.jmetal.qualityindicator.impl.Epsilon;
 import org.uma.jmetal.qualityindicator.impl.GenerationalDistance;
 import org.uma.jmetal.qualityindicator.impl.InvertedGenerationalDistance;
@@ -31,6 +32,8 @@ import org.uma.jmetal.qualityindicator.impl.hypervolume.PISAHypervolume;
 import org.uma.jmetal.solution.DoubleSolution;
 import org.uma.jmetal.util.JMetalException;
 import org.uma.jmetal.util.archive.impl.CrowdingDistanceArchive;
+import org.uma.jmetal.util.evaluator.SolutionListEvaluator;
+import org.uma.jmetal.util.evaluator.impl.MultithreadedSolutionListEvaluator;
 import org.uma.jmetal.util.evaluator.impl.SequentialSolutionListEvaluator;
 import org.uma.jmetal.util.experiment.Experiment;
 import org.uma.jmetal.util.experiment.ExperimentBuilder;
@@ -59,6 +62,13 @@ public class Optimizer {
 	// Parameters for parallelization.
 	private static int numCores; // Number of cores to use during the experiments. 
 	private static int numRuns; // Number of independent runs
+	private static int numEvaluationThreads; // Number of threads evaluating the population.
+	// Parameters for the racing evaluation of the populations.
+	private static boolean racingEvaluation;
+	private static int racingInitialReplicas; // Replicas of every individual in the first stage.
+	private static double racingKeepRatio; // Fraction of the individuals kept in each stage.
+	// Evaluators created for the algorithms, shut down once the experiment has been executed.
+	private static final List<SolutionListEvaluator<DoubleSolution>> evaluators = new ArrayList<>();
 	
 	public static void main(String [] args) throws IOException{
 		
@@ -86,6 +96,10 @@ public class Optimizer {
 		crossoverProb =  parameterReader.getParameterDouble("cossover_prob");
 		numCores = parameterReader.getParameterInteger("num_cores");
 		numRuns = parameterReader.getParameterInteger("num_runs");
+		numEvaluationThreads = parameterReader.getParameterInteger("evaluation_threads", numCores);
+		racingEvaluation = parameterReader.getParameterBoolean("racing_evaluation", false);
+		racingInitialReplicas = parameterReader.getParameterInteger("racing_initial_replicas", 3);
+		racingKeepRatio = parameterReader.getParameterDouble("racing_keep_ratio", 0.5);
 		
 		String experimentBaseDirectory = args[1];
 		
@@ -119,6 +133,7 @@ public class Optimizer {
 			            .build();
 				
 		    new ExecuteAlgorithms<>(experiment).run();
+		    shutdownSolutionListEvaluators();
 		    new GenerateReferenceParetoSetAndFrontFromDoubleSolutions(experiment).run();
 		    new ComputeQualityIndicators<>(experiment).run() ;
 		    new GenerateLatexTablesWithStatistics(experiment).run() ;
@@ -154,6 +169,7 @@ public class Optimizer {
 		            .build();
 	
 		    new ExecuteAlgorithms<>(experiment).run();
+		    shutdownSolutionListEvaluators();
 		    new GenerateReferenceParetoSetAndFrontFromDoubleSolutions(experiment).run();
 		    new ComputeQualityIndicators<>(experiment).run() ;
 		    new GenerateLatexTablesWithStatistics(experiment).run() ;
@@ -163,6 +179,45 @@ public class Optimizer {
 		}
 	}
 	
+	/**
+	 * Creates the evaluator of the populations. TargetingProblem and MOTargetingProblem keep a 
+	 * market per thread, so the individuals are evaluated concurrently when more than one 
+	 * evaluation thread is configured. With racing evaluation the Monte Carlo replicas are 
+	 * shared out among the individuals by successive halving (@see RacingSolutionListEvaluator).
+	 * 
+	 * @param problem
+	 * @return
+	 */
+	static SolutionListEvaluator<DoubleSolution> createSolutionListEvaluator(Problem<DoubleSolution> problem) {
+		SolutionListEvaluator<DoubleSolution> evaluator;
+		if (racingEvaluation && problem instanceof RacingProblem) {
+			evaluator = new RacingSolutionListEvaluator(racingInitialReplicas, racingKeepRatio, numEvaluationThreads);
+		}
+		else if (numEvaluationThreads > 1) {
+			evaluator = new MultithreadedSolutionListEvaluator<DoubleSolution>(numEvaluationThreads, problem);
+		}
+		else {
+			evaluator = new SequentialSolutionListEvaluator<DoubleSolution>();
+		}
+		synchronized (evaluators) {
+			evaluators.add(evaluator);
+		}
+		return evaluator;
+	}
+	
+	/**
+	 * Shuts down the evaluators created for the algorithms of an experiment, releasing the 
+	 * threads of their pools.
+	 */
+	static void shutdownSolutionListEvaluators() {
+		synchronized (evaluators) {
+			for (SolutionListEvaluator<DoubleSolution> evaluator: evaluators) {
+				evaluator.shutdown();
+			}
+			evaluators.clear();
+		}
+	}
+	
 	/**
    * The algorithm list is composed of pairs {@link Algorithm} + {@link Problem} which form part of a
    * {@link ExperimentAlgorithm}, which is a decorator for class {@link Algorithm}.
@@ -184,7 +239,7 @@ public class Optimizer {
 					.setMutation(new PolynomialMutation(mutationProbability, mutationDistributionIndex))
 					.setMaxIterations(numEvaluations)
 					.setSwarmSize(100)
-					.setSolutionListEvaluator(new SequentialSolutionListEvaluator<DoubleSolution>())
+					.setSolutionListEvaluator(createSolutionListEvaluator(problemList.get(i).getProblem()))
 					.build();
 			algorithms.add(new ExperimentAlgorithm<>(algorithm, problemList.get(i).getTag()));
 		}*/
@@ -194,6 +249,7 @@ public class Optimizer {
 					new SBXCrossover(1.0, 20.0), 
 					new PolynomialMutation(1.0 / problemList.get(i).getProblem().getNumberOfVariables(), 20.0))
 					.setMaxEvaluations(numEvaluations)
+					.setSolutionListEvaluator(createSolutionListEvaluator(problemList.get(i).getProblem()))
 					.build();
 			algorithms.add(new ExperimentAlgorithm<>(algorithm, problemList.get(i).getTag()));
 		}
@@ -254,6 +310,7 @@ public class Optimizer {
 				  .setMaxEvaluations(numEvaluations)
 				  .setPopulationSize(populationSize)
 				  .setVariant(GeneticAlgorithmVariant.GENERATIONAL)
+				  .setSolutionListEvaluator(createSolutionListEvaluator(problemList.get(i).getProblem()))
 				  .build();
 		  algorithms.add(new ExperimentAlgorithm<>(algorithm, problemList.get(i).getTag()));
 	  }
@@ -269,6 +326,7 @@ public class Optimizer {
 				  .setMaxEvaluations(numEvaluations)
 				  .setPopulationSize(populationSize)
 				  .setVariant(GeneticAlgorithmVariant.STEADY_STATE)
+				  .setSolutionListEvaluator(createSolutionListEvaluator(problemList.get(i).getProblem()))
 				  .build();
 		  algorithms.add(new ExperimentAlgorithm<>(algorithm, problemList.get(i).getTag()));
 	  }
@@ -281,7 +339,7 @@ public class Optimizer {
 				  .setMaxEvaluations(numEvaluations)
 				  .setCrossover(new DifferentialEvolutionCrossover())
 				  .setSelection(new DifferentialEvolutionSelection())
-				  .setSolutionListEvaluator(new SequentialSolutionListEvaluator<DoubleSolution>())
+				  .setSolutionListEvaluator(createSolutionListEvaluator(problemList.get(i).getProblem()))
 				  .build();
 		  algorithms.add(new ExperimentAlgorithm<>(algorithm, problemList.get(i).getTag()));
 	  }
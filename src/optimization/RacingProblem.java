@@ -0,0 +1,34 @@
+package optimization;
+
+import org.uma.jmetal.problem.Problem;
+import org.uma.jmetal.solution.DoubleSolution;
+
+/**
+ * Problem whose solutions are evaluated by Monte Carlo replicas which can be simulated in
+ * several stages, so the evaluation of a population can be raced
+ * (@see optimization.RacingSolutionListEvaluator).
+ */
+public interface RacingProblem extends Problem<DoubleSolution> {
+
+	/**
+	 * Get the number of Monte Carlo replicas of a full evaluation.
+	 * @return Replicas.
+	 */
+	int getNumReplicas();
+
+	/**
+	 * Simulates a range of Monte Carlo replicas of a solution.
+	 * @param solution Solution.
+	 * @param from First replica.
+	 * @param to Last replica (exclusive).
+	 * @return NPV of each replica of the range.
+	 */
+	double [] [] evaluateReplicas(DoubleSolution solution, int from, int to);
+
+	/**
+	 * Sets the objectives of a solution from its mean NPV.
+	 * @param solution Solution.
+	 * @param NPV Mean NPV of the replicas simulated.
+	 */
+	void setObjectives(DoubleSolution solution, double [] NPV);
+}
@@ -0,0 +1,196 @@
+package optimization;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.uma.jmetal.problem.Problem;
+import org.uma.jmetal.solution.DoubleSolution;
+import org.uma.jmetal.util.JMetalException;
+import org.uma.jmetal.util.evaluator.SolutionListEvaluator;
+
+/**
+ * Evaluator of the populations by successive halving of the Monte Carlo replicas.
+ *
+ * Every solution of the population is evaluated with a few replicas first. Then the solutions
+ * are ranked by Pareto dominance of their mean objectives (and by the first objective within
+ * a front) and only the best keepRatio of them is evaluated with the next replicas, whose
+ * number grows by 1 / keepRatio in each stage, until the contenders get all the replicas of
+ * the problem. The solutions left behind keep the objectives of the replicas simulated, so
+ * the clearly dominated ones cost a fraction of a full evaluation.
+ *
+ * The solutions of a stage are evaluated concurrently when more than one thread is given,
+ * as TargetingProblem and MOTargetingProblem keep a market per thread.
+ */
+public class RacingSolutionListEvaluator implements SolutionListEvaluator<DoubleSolution> {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int initialReplicas;
+	private final double keepRatio;
+	private final int numThreads;
+	private transient ForkJoinPool pool;
+	private long replicas; // Replicas simulated since the evaluator was created.
+
+	/**
+	 * @param initialReplicas Replicas of every solution in the first stage.
+	 * @param keepRatio Fraction of the solutions of a stage evaluated in the next one (0 to 1).
+	 * @param numThreads Number of threads evaluating the solutions.
+	 */
+	public RacingSolutionListEvaluator(int initialReplicas, double keepRatio, int numThreads) {
+		if (initialReplicas < 1 || keepRatio <= 0.0 || keepRatio > 1.0) {
+			throw new JMetalException("Wrong racing parameters: " + initialReplicas + " initial replicas, keep ratio " + keepRatio);
+		}
+		this.initialReplicas = initialReplicas;
+		this.keepRatio = keepRatio;
+		this.numThreads = numThreads;
+	}
+
+	@Override
+	public List<DoubleSolution> evaluate(List<DoubleSolution> solutionList, Problem<DoubleSolution> problem) {
+		if (!(problem instanceof RacingProblem)) {
+			throw new JMetalException("The problem " + problem.getName() + " can not be raced");
+		}
+		RacingProblem racing = (RacingProblem) problem;
+		int numReplicas = racing.getNumReplicas();
+
+		// Sum of the NPV of the replicas simulated of each solution.
+		double [] [] sums = new double [solutionList.size()] [];
+		List<Integer> active = new ArrayList<>(solutionList.size());
+		for (int i = 0; i < solutionList.size(); i++) {
+			active.add(i);
+		}
+
+		int from = 0;
+		int to = Math.min(numReplicas, this.initialReplicas);
+		while (!active.isEmpty()) {
+			this.evaluateStage(racing, solutionList, active, sums, from, to);
+			for (int i: active) {
+				double [] mean = new double [sums[i].length];
+				for (int v = 0; v < mean.length; v++) {
+					mean[v] = sums[i][v] / (double) to;
+				}
+				racing.setObjectives(solutionList.get(i), mean);
+			}
+			if (to >= numReplicas) {
+				break;
+			}
+			active = this.selectContenders(solutionList, active);
+			from = to;
+			to = Math.min(numReplicas, Math.max(to + 1, (int) Math.ceil(to / this.keepRatio)));
+		}
+		return solutionList;
+	}
+
+	/**
+	 * Simulates a range of replicas of the active solutions.
+	 */
+	private void evaluateStage(final RacingProblem problem, final List<DoubleSolution> solutionList, List<Integer> active,
+			final double [] [] sums, final int from, final int to) {
+		if (this.numThreads > 1 && active.size() > 1) {
+			ForkJoinPool pool = this.getPool();
+			List<ForkJoinTask<?>> tasks = new ArrayList<>(active.size());
+			for (final int i: active) {
+				tasks.add(pool.submit(() -> this.accumulate(problem, solutionList.get(i), sums, i, from, to)));
+			}
+			for (ForkJoinTask<?> task: tasks) {
+				task.join();
+			}
+		}
+		else {
+			for (int i: active) {
+				this.accumulate(problem, solutionList.get(i), sums, i, from, to);
+			}
+		}
+		synchronized (this) {
+			this.replicas += (long) active.size() * (to - from);
+		}
+	}
+
+	private void accumulate(RacingProblem problem, DoubleSolution solution, double [] [] sums, int i, int from, int to) {
+		double [] [] NPV = problem.evaluateReplicas(solution, from, to);
+		if (sums[i] == null) {
+			sums[i] = new double [NPV[0].length];
+		}
+		for (double [] replica: NPV) {
+			for (int v = 0; v < replica.length; v++) {
+				sums[i][v] += replica[v];
+			}
+		}
+	}
+
+	/**
+	 * Ranks the active solutions by their Pareto front (non-dominated sorting of the mean
+	 * objectives, which are minimized) and by the first objective within a front.
+	 * @return Best keepRatio of the active solutions.
+	 */
+	private List<Integer> selectContenders(final List<DoubleSolution> solutionList, List<Integer> active) {
+		final int [] front = new int [solutionList.size()];
+		List<Integer> remaining = new ArrayList<>(active);
+		for (int rank = 0; !remaining.isEmpty(); rank++) {
+			List<Integer> dominated = new ArrayList<>();
+			List<Integer> current = new ArrayList<>();
+			for (int i: remaining) {
+				boolean isDominated = false;
+				for (int j: remaining) {
+					if (dominates(solutionList.get(j), solutionList.get(i))) {
+						isDominated = true;
+						break;
+					}
+				}
+				if (isDominated)
+					dominated.add(i);
+				else
+					current.add(i);
+			}
+			for (int i: current) {
+				front[i] = rank;
+			}
+			remaining = dominated;
+		}
+
+		List<Integer> ranking = new ArrayList<>(active);
+		Collections.sort(ranking, (a, b) -> {
+			if (front[a] != front[b])
+				return Integer.compare(front[a], front[b]);
+			return Double.compare(solutionList.get(a).getObjective(0), solutionList.get(b).getObjective(0));
+		});
+		int keep = Math.max(1, (int) Math.ceil(active.size() * this.keepRatio));
+		return new ArrayList<>(ranking.subList(0, keep));
+	}
+
+	private static boolean dominates(DoubleSolution a, DoubleSolution b) {
+		boolean better = false;
+		for (int k = 0; k < a.getNumberOfObjectives(); k++) {
+			if (a.getObjective(k) > b.getObjective(k))
+				return false;
+			if (a.getObjective(k) < b.getObjective(k))
+				better = true;
+		}
+		return better;
+	}
+
+	/**
+	 * Get the number of Monte Carlo replicas simulated by the evaluator.
+	 * @return Replicas.
+	 */
+	public synchronized long getReplicas() {
+		return this.replicas;
+	}
+
+	private synchronized ForkJoinPool getPool() {
+		if (this.pool == null)
+			this.pool = new ForkJoinPool(this.numThreads);
+		return this.pool;
+	}
+
+	@Override
+	public synchronized void shutdown() {
+		if (this.pool != null) {
+			this.pool.shutdown();
+			this.pool = null;
+		}
+	}
+}
@@ -9,7 +9,7 @@ import org.uma.jmetal.solution.DoubleSolution;
 import configuration.Reader;
 import model.Market;
 
-public class TargetingProblem extends AbstractDoubleProblem{
+public class TargetingProblem extends AbstractDoubleProblem implements RacingProblem {
 	
 	/**
 	 * 
@@ -17,6 +17,9 @@ public class TargetingProblem extends AbstractDoubleProblem{
 	private static final long serialVersionUID = 1L;
 	
 	private final Market market;
+	// Per-thread markets. They share the social network and metrics of market, so
+	// the problem can be evaluated from several threads at the same time.
+	private final transient ThreadLocal<Market> workers;
 	
 	public TargetingProblem(int nvars){
 		this(nvars, "TargetingViralMarketing");
@@ -29,6 +32,7 @@ public class TargetingProblem extends AbstractDoubleProblem{
 	    Reader reader = new Reader(paramsfile);
 	    
 	    this.market = new Market(paramsfile);
+	    this.workers = ThreadLocal.withInitial(this.market::newWorker);
 	    
 		double maxTargets = (double) this.market.getSocialNetwork().getNumNodes() * reader.getParameterDouble("targets_ratio");
 		
@@ -49,21 +53,34 @@ public class TargetingProblem extends AbstractDoubleProblem{
 	}
 	@Override
 	public void evaluate(DoubleSolution solution) {
-
-		double wd = solution.getVariableValue(0);
-		double w2s = solution.getVariableValue(1);
-		double wcc = solution.getVariableValue(2);
-		double fs = solution.getVariableValue(3);
-		
-		//System.out.println("[ " + Double.toString(wd) + " -|- " + Double.toString(w2s) + 
-			//	" -|- " + Double.toString(wcc) + " -|- " + Integer.toString((int) fs) + " ]");
-		
-		double [] ws = new double [] {wd, w2s, wcc, fs};
-		
-		double [] NPV = market.run(ws);
-		
+		this.setObjectives(solution, workers.get().run(this.getWeights(solution)));
+	}
+	
+	@Override
+	public int getNumReplicas() {
+		return this.market.getNumMC();
+	}
+	
+	@Override
+	public double [] [] evaluateReplicas(DoubleSolution solution, int from, int to) {
+		return workers.get().runReplicas(this.getWeights(solution), from, to);
+	}
+	
+	@Override
+	public void setObjectives(DoubleSolution solution, double [] NPV) {
 		solution.setObjective(0, -1.0 * NPV[0]);
-		
+	}
+	
+	/**
+	 * Weights of the network metrics (degree, two steps, clustering coefficient, ...) 
+	 * and number of seeds (@see model.Market.selectSeeds).
+	 */
+	private double [] getWeights(DoubleSolution solution) {
+		double [] ws = new double [getNumberOfVariables()];
+		for (int i = 0; i < ws.length; i++) {
+			ws[i] = solution.getVariableValue(i);
+		}
+		return ws;
 	}
 
 }
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2017 Juan Francisco Robles Fuentes.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package socialnetwork;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.graphstream.graph.Graph;
+import org.graphstream.graph.Node;
+
+/**
+ * @author Juan Francisco Robles Fuentes <juanfrarobles@gmail.com>.
+ */
+
+/**
+ * Class CSRGraph.
+ * <p>
+ * Immutable snapshot of the adjacency of a social network in compressed sparse row
+ * (CSR) format. The neighbours of node v are stored in
+ * targets[offsets[v] .. offsets[v + 1]), sorted by index. GraphStream does not keep the
+ * order of the neighbours between loads, so the sort makes the snapshot (and its hash, which
+ * keys the metrics cache, @see socialnetwork.MetricsCache.hash) the same in every load.
+ * <p>
+ * The snapshot only uses two primitive arrays, so it can be shared between simulations
+ * (and threads) and outlives the GraphStream graph it was built from.
+ * <p>
+ */
+
+public class CSRGraph {
+    /**
+     * Nodes processed in a row by a thread when calculating the two step reach.
+     */
+    private static final int TWO_STEP_CHUNK = 1024;
+    /**
+     * Position of the first neighbour of each node (numNodes + 1 values).
+     */
+    private final int [] offsets;
+    /**
+     * Neighbours of all the nodes, one row after another.
+     */
+    private final int [] targets;
+
+    /* ----------------------------------- Constructors. ---------------------------------------- */
+    /**
+     * Constructor.
+     * <p>
+     * Creates a snapshot from already built CSR arrays.
+     * <p>
+     * @param offsets Position of the first neighbour of each node (numNodes + 1 values).
+     * @param targets Neighbours of all the nodes.
+     */
+    public CSRGraph(int [] offsets, int [] targets){
+        this.offsets = offsets;
+        this.targets = targets;
+    }
+    /**
+     * Creates the CSR snapshot of a GraphStream graph walking each node neighbourhood once.
+     * The neighbours of each node are sorted, so the snapshot of a network (and its hash,
+     * @see socialnetwork.MetricsCache.hash) is the same in every execution.
+     * @param graph Social network graph.
+     * @return Adjacency snapshot.
+     */
+    public static CSRGraph fromGraph(Graph graph){
+        int numNodes = graph.getNodeCount();
+        int [] offsets = new int [numNodes + 1];
+        int [] targets = new int [Math.max(16, 2 * graph.getEdgeCount())];
+        int pos = 0;
+
+        for(int node = 0; node < numNodes; node++){
+            Iterator<Node> it = graph.getNode(node).getNeighborNodeIterator();
+            while(it.hasNext()){
+                if(pos == targets.length){
+                    targets = Arrays.copyOf(targets, 2 * targets.length);
+                }
+                targets[pos++] = it.next().getIndex();
+            }
+            // GraphStream does not keep the order of the neighbours between loads.
+            Arrays.sort(targets, offsets[node], pos);
+            offsets[node + 1] = pos;
+        }
+        return new CSRGraph(offsets, Arrays.copyOf(targets, pos));
+    }
+    /* -------------------------------------- Getters. --------------------------------------- */
+    /**
+     * Get the number of nodes of the snapshot.
+     * @return Number of nodes.
+     */
+    public int getNumNodes(){
+        return this.offsets.length - 1;
+    }
+    /**
+     * Get the number of stored adjacencies (twice the number of undirected edges).
+     * @return Length of the targets array.
+     */
+    public int getNumAdjacencies(){
+        return this.offsets[this.offsets.length - 1];
+    }
+    /**
+     * Get the degree of a node.
+     * @param node Number of node.
+     * @return Node degree.
+     */
+    public int getDegree(int node){
+        return this.offsets[node + 1] - this.offsets[node];
+    }
+    /**
+     * Get a neighbour of a node.
+     * @param node Number of node.
+     * @param pos Position of the neighbour (0 .. degree - 1).
+     * @return Neighbour index.
+     */
+    public int getNeighbor(int node, int pos){
+        return this.targets[this.offsets[node] + pos];
+    }
+    /**
+     * Get the offsets array. It must not be modified.
+     * @return Offsets.
+     */
+    public int [] getOffsets(){
+        return this.offsets;
+    }
+    /**
+     * Get the targets array. It must not be modified.
+     * @return Targets.
+     */
+    public int [] getTargets(){
+        return this.targets;
+    }
+    /* ------------------------------------ Class Methods. ---------------------------------- */
+    /**
+     * Number of nodes at one or two steps of a node (the node itself excluded).
+     * <p>
+     * The visited nodes are marked in a stamp array with node + 1, so the array does not
+     * need to be cleared between nodes as long as each node is calculated once per array
+     * (or the array is cleared).
+     * <p>
+     * @param node Number of node.
+     * @param stamps Stamp array (numNodes values).
+     * @return Number of nodes reachable at two steps.
+     */
+    public int getTwoStepReach(int node, int [] stamps){
+        int stamp = node + 1;
+        int count = 0;
+        stamps[node] = stamp;
+        for(int pos = this.offsets[node]; pos < this.offsets[node + 1]; pos++){
+            int neighbour = this.targets[pos];
+            if(stamps[neighbour] != stamp){
+                stamps[neighbour] = stamp;
+                count++;
+            }
+        }
+        for(int pos = this.offsets[node]; pos < this.offsets[node + 1]; pos++){
+            int neighbour = this.targets[pos];
+            for(int pos2 = this.offsets[neighbour]; pos2 < this.offsets[neighbour + 1]; pos2++){
+                int w = this.targets[pos2];
+                if(stamps[w] != stamp){
+                    stamps[w] = stamp;
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+    /**
+     * Number of nodes at one or two steps of every node (@see socialnetwork.CSRGraph.getTwoStepReach).
+     * The nodes are shared out in chunks among the threads, each one with its own stamp array.
+     * @param numThreads Number of threads.
+     * @return Two step reach of each node.
+     */
+    public int [] getTwoStepReach(int numThreads){
+        final int numNodes = this.getNumNodes();
+        final int [] reach = new int [numNodes];
+        final int numChunks = (numNodes + TWO_STEP_CHUNK - 1) / TWO_STEP_CHUNK;
+        final int threads = Math.max(1, Math.min(numThreads, numChunks));
+        if(threads == 1){
+            int [] stamps = new int [numNodes];
+            for(int node = 0; node < numNodes; node++){
+                reach[node] = this.getTwoStepReach(node, stamps);
+            }
+            return reach;
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(threads);
+            for(int t = 0; t < threads; t++){
+                final int thread = t;
+                tasks.add(pool.submit(() -> {
+                    int [] stamps = new int [numNodes];
+                    for(int chunk = thread; chunk < numChunks; chunk += threads){
+                        int to = Math.min(numNodes, (chunk + 1) * TWO_STEP_CHUNK);
+                        for(int node = chunk * TWO_STEP_CHUNK; node < to; node++){
+                            reach[node] = this.getTwoStepReach(node, stamps);
+                        }
+                    }
+                }));
+            }
+            for (ForkJoinTask<?> task: tasks) {
+                task.join();
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+        return reach;
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2017 Juan Francisco Robles Fuentes.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package socialnetwork;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import socialnetwork.NetworkMetrics.Metric;
+
+/**
+ * @author Juan Francisco Robles Fuentes <juanfrarobles@gmail.com>.
+ */
+
+/**
+ * Class MetricsCache.
+ * <p>
+ * Persistent cache of the network metrics (@see socialnetwork.NetworkMetrics) in a binary
+ * sidecar file next to the network file. The file is memory-mapped once and each metric is
+ * a view of its column of the mapping, so the metrics calculated by a previous execution
+ * (i.e. betweenness or closeness of a large network) are loaded instead of calculated again,
+ * without reading the file into the heap.
+ * <p>
+ * The file is keyed by a hash of the adjacency of the network, so it is ignored if the
+ * network changes, and each metric is stored with its version (@see
+ * socialnetwork.NetworkMetrics.Metric.getVersion), so it is calculated again if the way to
+ * calculate it changes.
+ * <p>
+ * File format (little-endian):
+ *   -> magic - 8 bytes "TGETMETR".
+ *   -> version, numNodes - ints.
+ *   -> hash - long. Hash of the adjacency (@see socialnetwork.MetricsCache.hash).
+ *   -> numMetrics, reserved - ints.
+ *   -> metric, metricVersion - numMetrics pairs of ints (ordinal and version of each metric).
+ *   -> values - numMetrics columns of numNodes doubles.
+ * <p>
+ */
+
+public class MetricsCache {
+
+    public static final String MAGIC = "TGETMETR";
+    public static final int VERSION = 1;
+    public static final String EXTENSION = ".metrics";
+    private static final int HEADER = MAGIC.length() + 4 * Integer.BYTES + Long.BYTES;
+
+    /**
+     * Sidecar file.
+     */
+    private final Path path;
+    /**
+     * Number of nodes of the network.
+     */
+    private final int numNodes;
+    /**
+     * Hash of the adjacency of the network.
+     */
+    private final long hash;
+    /**
+     * Columns of the metrics of the mapped file (null until the file is mapped).
+     */
+    private Map<Metric, DoubleBuffer> columns;
+
+    /* ----------------------------------- Constructors. ---------------------------------------- */
+    /**
+     * Constructor.
+     * <p>
+     * Creates the cache of the metrics of a network. The file is not read nor created until
+     * a metric is loaded or stored.
+     * <p>
+     * @param path Sidecar file.
+     * @param adjacency Adjacency snapshot of the network.
+     */
+    public MetricsCache(String path, CSRGraph adjacency){
+        this.path = Paths.get(path);
+        this.numNodes = adjacency.getNumNodes();
+        this.hash = hash(adjacency);
+    }
+    /* -------------------------------------- Getters. --------------------------------------- */
+    /**
+     * Get the sidecar file.
+     * @return File path.
+     */
+    public Path getPath(){
+        return this.path;
+    }
+    /**
+     * Get the hash of the adjacency of the network.
+     * @return Hash.
+     */
+    public long getHash(){
+        return this.hash;
+    }
+    /* ------------------------------------ Class Methods. ---------------------------------- */
+    /**
+     * Hash (64 bits FNV-1a with a final mix) of the adjacency of a network. Two networks with
+     * the same nodes and neighbours have the same hash, as the snapshot keeps the neighbours
+     * of each node sorted (@see socialnetwork.CSRGraph.fromGraph).
+     * @param adjacency Adjacency snapshot.
+     * @return Hash.
+     */
+    public static long hash(CSRGraph adjacency){
+        long h = 0xcbf29ce484222325L;
+        int [] offsets = adjacency.getOffsets();
+        int [] targets = adjacency.getTargets();
+        for(int i = 0; i < offsets.length; i++){
+            h = (h ^ offsets[i]) * 0x100000001b3L;
+        }
+        for(int i = 0; i < adjacency.getNumAdjacencies(); i++){
+            h = (h ^ targets[i]) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+    /**
+     * Loads a metric from the file.
+     * @param metric Metric.
+     * @return Read-only view of the metric of each node in the mapped file, or null if the
+     * file does not contain it (in its current version).
+     */
+    public synchronized DoubleBuffer load(Metric metric){
+        DoubleBuffer column = this.map().get(metric);
+        return column == null ? null : column.asReadOnlyBuffer();
+    }
+    /**
+     * Stores a metric in the file, keeping the metrics already stored. The file is replaced
+     * atomically, so other processes reading it never see a partial file.
+     * @param metric Metric.
+     * @param values Metric of each node.
+     */
+    public synchronized void store(Metric metric, double [] values){
+        Map<Metric, DoubleBuffer> stored = new EnumMap<>(this.map());
+        stored.put(metric, DoubleBuffer.wrap(values));
+        try {
+            this.write(stored);
+        } catch (IOException ex) {
+            Logger.getLogger(MetricsCache.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        // The new file is mapped in the next load. The views already loaded keep the
+        // former mapping.
+        this.columns = null;
+    }
+    /**
+     * Maps the file (once) and slices the column of each metric. A missing file, or a file
+     * of another network or version, has no metrics.
+     * @return Columns of the stored metrics.
+     */
+    private Map<Metric, DoubleBuffer> map(){
+        if (this.columns != null)
+            return this.columns;
+        Map<Metric, DoubleBuffer> stored = new EnumMap<>(Metric.class);
+        this.columns = stored;
+        if (!Files.isRegularFile(this.path))
+            return stored;
+        try (FileChannel channel = FileChannel.open(this.path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER)
+                return stored;
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            ByteBuffer b = mapped.order(ByteOrder.LITTLE_ENDIAN);
+            byte [] magic = new byte [MAGIC.length()];
+            b.get(magic);
+            if (!MAGIC.equals(new String(magic, StandardCharsets.US_ASCII)) || b.getInt() != VERSION
+                    || b.getInt() != this.numNodes || b.getLong() != this.hash)
+                return stored;
+            int numMetrics = b.getInt();
+            b.getInt();
+            long size = HEADER + (long) numMetrics * 2 * Integer.BYTES + (long) numMetrics * this.numNodes * Double.BYTES;
+            if (numMetrics < 0 || channel.size() < size)
+                return stored;
+            int [] ordinals = new int [numMetrics];
+            int [] versions = new int [numMetrics];
+            for(int m = 0; m < numMetrics; m++){
+                ordinals[m] = b.getInt();
+                versions[m] = b.getInt();
+            }
+            DoubleBuffer values = b.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+            Metric [] metrics = Metric.values();
+            for(int m = 0; m < numMetrics; m++){
+                if (ordinals[m] >= 0 && ordinals[m] < metrics.length && metrics[ordinals[m]].getVersion() == versions[m]){
+                    DoubleBuffer column = values.duplicate();
+                    ((Buffer) column).limit((m + 1) * this.numNodes);
+                    ((Buffer) column).position(m * this.numNodes);
+                    stored.put(metrics[ordinals[m]], column.slice());
+                }
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(MetricsCache.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        return stored;
+    }
+    /**
+     * Writes the metrics into a temporary file which replaces the sidecar file.
+     * @param stored Metrics.
+     * @throws IOException If the file can not be written.
+     */
+    private void write(Map<Metric, DoubleBuffer> stored) throws IOException{
+        int numMetrics = stored.size();
+        long size = HEADER + (long) numMetrics * 2 * Integer.BYTES + (long) numMetrics * this.numNodes * Double.BYTES;
+        Path parent = this.path.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(parent, this.path.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                ByteBuffer b = mapped.order(ByteOrder.LITTLE_ENDIAN);
+                b.put(MAGIC.getBytes(StandardCharsets.US_ASCII));
+                b.putInt(VERSION);
+                b.putInt(this.numNodes);
+                b.putLong(this.hash);
+                b.putInt(numMetrics);
+                b.putInt(0);
+                for(Metric metric: stored.keySet()){
+                    b.putInt(metric.ordinal());
+                    b.putInt(metric.getVersion());
+                }
+                DoubleBuffer columns = b.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+                for(DoubleBuffer values: stored.values()){
+                    columns.put(values.duplicate());
+                }
+                mapped.force();
+            }
+            try {
+                Files.move(tmp, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp, this.path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2017 Juan Francisco Robles Fuentes. 
+ * Copyright (C) 2017 Juan Francisco Robles Fuentes.
  *
  * This program is free software: you can redistribute it and/or modify
  * it under the terms of the GNU General Public License as published by
@@ -17,75 +17,323 @@
 
 package socialnetwork;
 
+import java.nio.DoubleBuffer;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * This class store some social network metrics to use them easily.
+ * <p>
+ * The metrics belong to a single social network and are calculated the first time they are
+ * requested (@see socialnetwork.NetworkMetrics.Metric), so only the metrics used by the
+ * model are calculated. Once calculated they are kept, and they can be read by several
+ * threads (i.e. the markets of a parallel Monte Carlo sharing the social network).
+ * <p>
  * @author Juan Francisco Robles <juanfrarobles@gmail.com>
  */
 
-import com.google.common.primitives.Doubles;
 
 public class NetworkMetrics {
-    // Vectors where SN metrics will be stored.
-    static double [] d;
-    static double [] ts;
-    static double [] cc;
-    static double [] apl;
-    static double [] ecc;
-    static double [] bc;
-    static double [] clc;
-    // Vector for normalized (max-min) metrics.
-    static double [] nd;
-    static double [] nts;
-    static double [] ncc;
-    static double [] napl;
-    static double [] necc;
-    static double [] nbc;
-    static double [] nclc;
+    /**
+     * Metrics of the nodes of a social network. Each metric knows how to calculate its
+     * values and how to normalize them in [0, 1] (higher is better to be selected as seed).
+     */
+    public enum Metric {
+        /**
+         * Node degree. Normalized by the maximum possible degree.
+         */
+        DEGREE("Node degrees", 1) {
+            @Override
+            double [] calculate(SocialNetwork sn){
+                return sn.getDegreeDistribution();
+            }
+            @Override
+            void normalize(SocialNetwork sn, DoubleBuffer values, double [] normalized){
+                double maxD = (double) sn.getNumNodes() - 1.0;
+                for(int node = 0; node < normalized.length; node++){
+                    normalized[node] = values.get(node) / maxD;
+                }
+            }
+        },
+        /**
+         * Number of nodes at two steps. Normalized by the maximum possible number.
+         */
+        TWO_STEPS("Friends of friends", 2) {
+            @Override
+            double [] calculate(SocialNetwork sn){
+                return sn.getTwoStepNodes();
+            }
+            @Override
+            void normalize(SocialNetwork sn, DoubleBuffer values, double [] normalized){
+                double maxTs = (double) sn.getNumNodes() - 1.0;
+                for(int node = 0; node < normalized.length; node++){
+                    normalized[node] = values.get(node) / maxTs;
+                }
+            }
+        },
+        /**
+         * Clustering coefficient. Better if is low.
+         */
+        CLUSTERING("Clustering coefficients", 1) {
+            @Override
+            double [] calculate(SocialNetwork sn){
+                return sn.getClusteringCoefficients();
+            }
+            @Override
+            void normalize(SocialNetwork sn, DoubleBuffer values, double [] normalized){
+                for(int node = 0; node < normalized.length; node++){
+                    normalized[node] = 1.0 - values.get(node);
+                }
+            }
+        },
+        /**
+         * Betweenness centrality. Normalized by the maximum.
+         */
+        BETWEENNESS("Betweeness centrality", 2) {
+            @Override
+            double [] calculate(SocialNetwork sn){
+                return sn.getBetweennessCentrality();
+            }
+        },
+        /**
+         * Closeness centrality. Normalized by the maximum.
+         */
+        CLOSENESS("Closeness centrality", 2) {
+            @Override
+            double [] calculate(SocialNetwork sn){
+                return sn.getClosenessCentrality();
+            }
+        },
+        /**
+         * Eccentricity centrality (inverse of the eccentricity, 0 for isolated nodes).
+         * Normalized by the maximum.
+         */
+        ECCENTRICITY("Eccentricity centrality", 3) {
+            @Override
+            double [] calculate(SocialNetwork sn){
+                return sn.getEccentricities();
+            }
+            @Override
+            void normalize(SocialNetwork sn, DoubleBuffer values, double [] normalized){
+                double maxEcc = finiteMax(values);
+                for(int node = 0; node < normalized.length; node++){
+                    double ecc = values.get(node);
+                    normalized[node] = maxEcc > 0.0 && Double.isFinite(ecc) ? ecc / maxEcc : 0.0;
+                }
+            }
+        },
+        /**
+         * Average path length. Better if is low.
+         */
+        AVERAGE_PATH_LENGTH("Average path lenghts", 2) {
+            @Override
+            double [] calculate(SocialNetwork sn){
+                return sn.getAveragePathLengths();
+            }
+            @Override
+            void normalize(SocialNetwork sn, DoubleBuffer values, double [] normalized){
+                double maxApl = finiteMax(values);
+                for(int node = 0; node < normalized.length; node++){
+                    double apl = values.get(node);
+                    normalized[node] = maxApl > 0.0 && Double.isFinite(apl) ? (maxApl - apl) / maxApl : 0.0;
+                }
+            }
+        };
+
+        private final String description;
+        private final int version;
+
+        private Metric(String description, int version){
+            this.description = description;
+            this.version = version;
+        }
+        /**
+         * Get the description of the metric.
+         * @return Description.
+         */
+        public String getDescription(){
+            return this.description;
+        }
+        /**
+         * Get the version of the calculation of the metric. It changes when the way to
+         * calculate the metric changes, so the cached values are calculated again
+         * (@see socialnetwork.MetricsCache).
+         * @return Version.
+         */
+        public int getVersion(){
+            return this.version;
+        }
+        /**
+         * Calculates the metric for all the nodes of a social network.
+         * @param sn Social network.
+         * @return Metric of each node.
+         */
+        abstract double [] calculate(SocialNetwork sn);
+        /**
+         * Normalizes the metric of the nodes (by default, dividing by the maximum).
+         * @param sn Social network.
+         * @param values Metric of each node (it may be a view of the metrics cache).
+         * @param normalized Normalized metric of each node.
+         */
+        void normalize(SocialNetwork sn, DoubleBuffer values, double [] normalized){
+            double max = max(values);
+            for(int node = 0; node < normalized.length; node++){
+                normalized[node] = max > 0.0 ? values.get(node) / max : 0.0;
+            }
+        }
+    }
+
+    // Social network of the metrics.
+    private final SocialNetwork sn;
+    // Vectors where SN metrics will be stored (indexed by Metric ordinal, null until calculated).
+    private final AtomicReferenceArray<DoubleBuffer> views;
+    // Arrays of the metrics, copied from the views of the metrics cache when they are requested.
+    private final AtomicReferenceArray<double []> values;
+    // Vectors for normalized metrics.
+    private final AtomicReferenceArray<double []> normalized;
+    // Persistent cache of the metrics (null if the metrics are not cached).
+    private volatile MetricsCache cache;
     /**
      * Constructor.
      * <p>
-     * Creates a SNMetrics object from a given SN calculating:
-     * 1) Degree.
-     * 2) Number of nodes at two steps for each node.
-     * 3) Clustering coefficient.
-     * @param sn 
+     * Creates a SNMetrics object from a given SN. The metrics are not calculated until they
+     * are requested.
+     * @param sn
      */
     public NetworkMetrics(SocialNetwork sn){
-        
-        int size = sn.getNumNodes();
-        d = new double[size];
-        System.arraycopy(sn.getDegreeDistribution(), 0, d, 0, size);
-        
-        ts = new double[size];
-        System.arraycopy(sn.getTwoStepNodes(), 0, ts, 0, size);
-        
-        cc = new double[size];
-        System.arraycopy(sn.getClusteringCoefficients(), 0, cc, 0, size);
-        
-//        apl = new double[size];
-//        System.arraycopy(sn.getAveragePathLengths(), 0, apl, 0, size);
-        
-//        ecc = new double[size];
-//        System.arraycopy(sn.getEccentricities(), 0, ecc, 0, size);
-        
-//        bc = new double[size];
-//        System.arraycopy(sn.getBetweennessCentrality(), 0, bc, 0, size);
-        
-//        clc = new double[size];
-//        System.arraycopy(sn.getClosenessCentrality(), 0, clc, 0, size);
-        
-        // Obtaining normalized metrics.
-        nd = new double[size];
-        nts = new double[size];
-        ncc = new double[size];
-//        napl = new double[size];
-//        necc = new double[size];
-//        nbc = new double[size];
-//        nclc = new double[size];
-        
-        calculateMetrics(sn);
+        this.sn = sn;
+        this.views = new AtomicReferenceArray<>(Metric.values().length);
+        this.values = new AtomicReferenceArray<>(Metric.values().length);
+        this.normalized = new AtomicReferenceArray<>(Metric.values().length);
+    }
+    /**
+     * Set the persistent cache where the metrics are loaded from and stored.
+     * @param cache Cache (null to calculate the metrics always).
+     */
+    public void setCache(MetricsCache cache){
+        this.cache = cache;
+    }
+    /**
+     * Get the persistent cache of the metrics.
+     * @return Cache (null if the metrics are not cached).
+     */
+    public MetricsCache getCache(){
+        return this.cache;
+    }
+    /* ----------------- Metric registry ----------------------*/
+    /**
+     * Get a metric of the nodes, calculating it if it has not been calculated yet.
+     * @param metric Metric.
+     * @return Metric of each node. It must not be modified.
+     */
+    public double [] getMetric(Metric metric){
+        double [] v = this.values.get(metric.ordinal());
+        if (v == null)
+            v = this.toArray(metric);
+        return v;
+    }
+    /**
+     * Get a normalized metric of the nodes, calculating it if it has not been calculated yet.
+     * @param metric Metric.
+     * @return Normalized metric of each node. It must not be modified.
+     */
+    public double [] getNormMetric(Metric metric){
+        double [] v = this.normalized.get(metric.ordinal());
+        if (v == null){
+            this.calculate(metric);
+            v = this.normalized.get(metric.ordinal());
+        }
+        return v;
+    }
+    /**
+     * Check if a metric has been already calculated.
+     * @param metric Metric.
+     * @return True if the metric is calculated.
+     */
+    public boolean isCalculated(Metric metric){
+        return this.normalized.get(metric.ordinal()) != null;
+    }
+    /**
+     * Calculates the given metrics (if they have not been calculated yet).
+     * @param metrics Metrics.
+     */
+    public void calculateMetrics(Metric... metrics){
+        for(Metric metric: metrics){
+            this.getNormMetric(metric);
+        }
+    }
+    /**
+     * Calculates (or loads from the cache) and normalizes a metric. Only a thread calculates
+     * each metric, the others wait for it. The metrics loaded from the cache are normalized
+     * from the mapped file, without copying them.
+     * @param metric Metric.
+     */
+    private synchronized void calculate(Metric metric){
+        int i = metric.ordinal();
+        if (this.normalized.get(i) == null){
+            MetricsCache c = this.cache;
+            DoubleBuffer view = c == null ? null : c.load(metric);
+            if (view == null){
+                double [] v = metric.calculate(this.sn);
+                if (c != null)
+                    c.store(metric, v);
+                this.values.set(i, v);
+                view = DoubleBuffer.wrap(v);
+            }
+            double [] nv = new double [view.limit()];
+            metric.normalize(this.sn, view, nv);
+            this.views.set(i, view);
+            this.normalized.set(i, nv);
+        }
+    }
+    /**
+     * Get the array of a metric, copying it from the metrics cache if it was loaded from it.
+     * @param metric Metric.
+     * @return Metric of each node.
+     */
+    private synchronized double [] toArray(Metric metric){
+        int i = metric.ordinal();
+        if (this.values.get(i) == null){
+            this.calculate(metric);
+            if (this.values.get(i) == null){
+                DoubleBuffer view = this.views.get(i).duplicate();
+                double [] v = new double [view.remaining()];
+                view.get(v);
+                this.values.set(i, v);
+            }
+        }
+        return this.values.get(i);
+    }
+    /**
+     * Maximum of the finite values of the metric of the nodes.
+     * @param values Metric of each node.
+     * @return Maximum (0 if there are no finite values).
+     */
+    private static double finiteMax(DoubleBuffer values){
+        double max = 0.0;
+        boolean found = false;
+        for(int node = 0; node < values.limit(); node++){
+            double v = values.get(node);
+            if (Double.isFinite(v)){
+                max = found ? Math.max(max, v) : v;
+                found = true;
+            }
+        }
+        return max;
+    }
+    /**
+     * Maximum of the metric of the nodes.
+     * @param values Metric of each node.
+     * @return Maximum (0 if there are no nodes).
+     */
+    private static double max(DoubleBuffer values){
+        if (values.limit() == 0)
+            return 0.0;
+        double max = values.get(0);
+        for(int node = 1; node < values.limit(); node++){
+            max = Math.max(max, values.get(node));
+        }
+        return max;
     }
     /* ----------------- Getters ------------------------------*/
     /**
@@ -93,175 +341,133 @@ public class NetworkMetrics {
      * @return Node degrees array for SN.
      */
     public double [] getDegMetric(){
-        return d;
+        return this.getMetric(Metric.DEGREE);
     }
     /**
      * Get two step metric.
      * @return Node two steps metric array for SN.
      */
     public double [] getTstepMetric(){
-        return ts;
+        return this.getMetric(Metric.TWO_STEPS);
     }
     /**
      * Get clustering coefficioent metric.
      * @return Clustering coefficient metric array.
      */
     public double [] getCcMetric(){
-        return cc;
+        return this.getMetric(Metric.CLUSTERING);
     }
     /**
      * Get normalized degree metric.
      * @return Normalized degree metric array.
      */
     public double [] getNormDegMetric(){
-        return nd;
+        return this.getNormMetric(Metric.DEGREE);
     }
     /**
      * Get normalized two steps metric.
      * @return Normalized two steps metric array.
      */
     public double [] getNormTstepMetric(){
-        return nts;
+        return this.getNormMetric(Metric.TWO_STEPS);
     }
     /**
      * Get normalized clustering coefficient metric.
      * @return Normalized clustering coefficient metric array.
      */
     public double [] getNormCcMetric(){
-        return ncc;
+        return this.getNormMetric(Metric.CLUSTERING);
     }
     /**
      * Get degree for a single node.
      * @param node
-     * @return 
+     * @return
      */
     public double getNodeDegMetric(int node){
-        return d[node];
+        return this.getMetric(Metric.DEGREE)[node];
     }
     /**
      * Get two steps metric value for a single node.
      * @param node
-     * @return 
+     * @return
      */
     public double getNodeTstepMetric(int node){
-        return ts[node];
+        return this.getMetric(Metric.TWO_STEPS)[node];
     }
     /**
      * Get clustering coefficient for a single node.
      * @param node
-     * @return 
+     * @return
      */
     public double getNodeCcMetric(int node){
-        return cc[node];
+        return this.getMetric(Metric.CLUSTERING)[node];
     }
     /**
      * Get normalized degree for a single node.
      * @param node
-     * @return 
+     * @return
      */
     public double getNormNodeDegMetric(int node){
-        return nd[node];
+        return this.getNormMetric(Metric.DEGREE)[node];
     }
     public double getNormAplMetric(int node){
-    	return napl[node];
+    	return this.getNormMetric(Metric.AVERAGE_PATH_LENGTH)[node];
     }
     public double getNormEccentricityMetric(int node){
-    	return necc[node];
+    	return this.getNormMetric(Metric.ECCENTRICITY)[node];
     }
     public double getNormBetweenessMetric(int node){
-    	return nbc[node];
+    	return this.getNormMetric(Metric.BETWEENNESS)[node];
     }
     public double getNormClosenessMetric(int node){
-    	return nclc[node];
+    	return this.getNormMetric(Metric.CLOSENESS)[node];
     }
     /**
      * Get normalized two steps metric value for a single node.
      * @param node
-     * @return 
+     * @return
      */
     public double getNormNodeTstepsMetric(int node){
-        return nts[node];
+        return this.getNormMetric(Metric.TWO_STEPS)[node];
     }
     /**
      * Get normalized clustering coefficient metric value for a single node.
      * @param node
-     * @return 
+     * @return
      */
     public double getNormNodeCcMetric(int node){
-        return ncc[node];
+        return this.getNormMetric(Metric.CLUSTERING)[node];
     }
-    
+
     /* ----------------- Class methods ----------------------- */
     /**
-     * Normaliza las medidas asociadas a los agentes de la clase para la ponderación de su influencia en la red. 
-     * Estas medidas son 3: 
-     * - Grado del nodo. 
-     * - Número de vecinos a 2 pasos del nodo (distancia 2 o dos arcos entre ellos). 
-     * - Coeficiente de clustering del nodo. 
-     * @param network Red social del modelo de compra.
+     * Shows the metrics calculated so far (degree, two steps and clustering coefficient
+     * are always shown).
      */
-    private void calculateMetrics(SocialNetwork network){
-        // Maximums:
-        //double maxD = Doubles.max(d);
-        //double maxTs = Doubles.max(ts);
-        double maxD = (double) network.getNumNodes() - 1.0;
-        double maxTs = (double) network.getNumNodes() - 1.0;
-        //double maxCc = Doubles.max(cc);
-        //double maxApl = Doubles.max(apl);
-        //double maxEcc = Doubles.max(ecc);
-        //double maxBc = Doubles.max(bc);
-        //double maxClc = Doubles.max(clc);
-        
-        // Normalization. 
-        for(int num_node = 0; num_node < d.length; num_node++){
-            nd[num_node] = d[num_node] / maxD;
-            nts[num_node] = ts[num_node] / maxTs;
-            // ncc[num_node] = 1.0 - cc[num_node] / maxCc;
-            ncc[num_node] = 1.0 - cc[num_node]; // Better if is low.
-            //napl[num_node] = (maxApl - apl[num_node]) / maxApl;
-            //necc[num_node] = ecc[num_node] / maxEcc; // Better if is low.
-            //nbc[num_node] = bc[num_node] / maxBc; // 
-            //nclc[num_node] = clc[num_node] / maxClc;
-        }
-    }
     public void display(){
+    	this.calculateMetrics(Metric.DEGREE, Metric.TWO_STEPS, Metric.CLUSTERING);
+
     	System.out.println("| -- Network Metrics --|");
-    	
+
     	System.out.println("| -- Not normalized netwrok metrics --|");
-    	
-    	System.out.println("Node degrees");
-    	System.out.println(Arrays.toString(d));
-    	System.out.println("Friends of friends");
-    	System.out.println(Arrays.toString(ts));
-    	System.out.println("Clustering coefficients");
-    	System.out.println(Arrays.toString(cc));
-    	/*System.out.println("Average path lenghts");
-    	System.out.println(Arrays.toString(apl));
-    	System.out.println("Eccentricity centrality");
-    	System.out.println(Arrays.toString(ecc));
-    	System.out.println("Betweeness centrality");
-    	System.out.println(Arrays.toString(bc));
-    	System.out.println("Closeness centrality");
-    	System.out.println(Arrays.toString(clc));*/
-    	
+
+    	for(Metric metric: Metric.values()){
+    		if (this.isCalculated(metric)){
+    			System.out.println(metric.getDescription());
+    			System.out.println(Arrays.toString(this.getMetric(metric)));
+    		}
+    	}
+
     	System.out.println("| -- Normalized network metrics --|");
-    	
-    	System.out.println("Normalized node degrees");
-    	System.out.println(Arrays.toString(nd));
-    	System.out.println("Normalized friends of friends");
-    	System.out.println(Arrays.toString(nts));
-    	System.out.println("Normalized clustering coefficients");
-    	System.out.println(Arrays.toString(ncc));
-    	/*System.out.println("Normalized average path lenghts");
-    	System.out.println(Arrays.toString(napl));
-    	System.out.println("Normalized eccentricity centrality");
-    	System.out.println(Arrays.toString(necc));
-    	System.out.println("Normalized betweeness centrality");
-    	System.out.println(Arrays.toString(nbc));
-    	System.out.println("Normalized closeness centrality");
-    	System.out.println(Arrays.toString(nclc));*/
-    	
+
+    	for(Metric metric: Metric.values()){
+    		if (this.isCalculated(metric)){
+    			System.out.println("Normalized " + metric.getDescription().toLowerCase());
+    			System.out.println(Arrays.toString(this.getNormMetric(metric)));
+    		}
+    	}
+
     	System.out.println("| -- End Network Metrics --|");
     }
-    
-}
\ No newline at end of file
+
+}
@@ -0,0 +1,514 @@
+/*
+ * Copyright (C) 2017 Juan Francisco Robles Fuentes.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package socialnetwork;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import util.random.Randomizer;
+import util.random.RandomizerFactory;
+import util.random.RandomizerFactory.RandomizerAlgorithm;
+
+/**
+ * @author Juan Francisco Robles Fuentes <juanfrarobles@gmail.com>.
+ */
+
+/**
+ * Class ShortestPaths.
+ * <p>
+ * Shortest path centralities of the nodes of an unweighted social network, calculated over
+ * its adjacency snapshot (@see socialnetwork.CSRGraph) instead of the GraphStream graph:
+ * - Betweenness centrality, with the algorithm of Brandes. The sources are shared out among
+ * the threads, and each thread accumulates the dependencies of its sources in its own array.
+ * - Closeness, eccentricity and average path length, with a multi-source breadth first
+ * search which explores the network from 64 sources at the same time (a bit of a word per
+ * source).
+ * - An estimation of the average path length from a sample of pivot nodes, with an error
+ * bound, for networks too large to calculate all the shortest paths.
+ * <p>
+ * The results only depend on the number of threads through the order of the sums of the
+ * betweenness.
+ * <p>
+ */
+
+public class ShortestPaths {
+    /**
+     * Sources explored by each multi-source breadth first search.
+     */
+    public static final int BATCH = Long.SIZE;
+    /**
+     * Adjacency of the network.
+     */
+    private final CSRGraph graph;
+    /**
+     * Number of threads.
+     */
+    private final int numThreads;
+    /**
+     * Sum of the distances from each node to the nodes it reaches.
+     */
+    private long [] distanceSums;
+    /**
+     * Number of nodes reached from each node (itself excluded).
+     */
+    private int [] reached;
+    /**
+     * Eccentricity (distance to the farthest reachable node) of each node.
+     */
+    private int [] eccentricity;
+
+    /* ----------------------------------- Constructors. ---------------------------------------- */
+    /**
+     * Constructor.
+     * <p>
+     * @param graph Adjacency snapshot of the network.
+     * @param numThreads Number of threads.
+     */
+    public ShortestPaths(CSRGraph graph, int numThreads){
+        this.graph = graph;
+        this.numThreads = Math.max(1, numThreads);
+    }
+    /* ------------------------------------ Class Methods. ---------------------------------- */
+    /**
+     * Betweenness centrality: number of shortest paths between each (ordered) pair of nodes
+     * that pass by a node, each path weighted by the inverse of the number of shortest paths
+     * of the pair.
+     * @return Betweenness of each node.
+     */
+    public double [] getBetweenness(){
+        final int numNodes = this.graph.getNumNodes();
+        final double [] [] partial = new double [this.numThreads] [];
+        this.forEachThread(t -> {
+            BrandesWorkspace ws = new BrandesWorkspace(numNodes);
+            for(int source = t; source < numNodes; source += this.numThreads){
+                ws.accumulate(this.graph, source);
+            }
+            partial[t] = ws.betweenness;
+        });
+        double [] betweenness = partial[0];
+        for(int t = 1; t < this.numThreads; t++){
+            for(int node = 0; node < numNodes; node++){
+                betweenness[node] += partial[t][node];
+            }
+        }
+        return betweenness;
+    }
+    /**
+     * Closeness centrality: inverse of the sum of the distances from a node to the nodes it
+     * reaches (0 for isolated nodes).
+     * @return Closeness of each node.
+     */
+    public double [] getCloseness(){
+        this.calculateDistances();
+        double [] closeness = new double [this.graph.getNumNodes()];
+        for(int node = 0; node < closeness.length; node++){
+            closeness[node] = this.distanceSums[node] > 0 ? 1.0 / (double) this.distanceSums[node] : 0.0;
+        }
+        return closeness;
+    }
+    /**
+     * Average path length of the nodes: average distance from a node to the nodes it reaches
+     * (0 for isolated nodes).
+     * @return Average path length of each node.
+     */
+    public double [] getAveragePathLengths(){
+        this.calculateDistances();
+        double [] apl = new double [this.graph.getNumNodes()];
+        for(int node = 0; node < apl.length; node++){
+            apl[node] = this.reached[node] > 0 ? (double) this.distanceSums[node] / (double) this.reached[node] : 0.0;
+        }
+        return apl;
+    }
+    /**
+     * Estimates the average path length of the nodes from the distances to a sample of
+     * pivot nodes (chosen at random without replacement). The estimation of a node is the
+     * average distance to the pivots it reaches, so it is unbiased, and its error is bounded
+     * with the inequality of Hoeffding: the distances of a node v are in [1, U(v)], where
+     * U(v) = min over the pivots p of d(v, p) + ecc(p) bounds the eccentricity of v.
+     * @param numPivots Number of pivots (all the nodes if it is greater than their number).
+     * @param confidence Confidence of the error bounds (i.e. 0.95).
+     * @param seed Seed of the selection of the pivots.
+     * @return Estimation.
+     */
+    public PathLengthEstimate estimateAveragePathLengths(int numPivots, double confidence, long seed){
+        final int numNodes = this.graph.getNumNodes();
+        final int k = Math.max(1, Math.min(numPivots, numNodes));
+        // Selection of the pivots (partial Fisher-Yates shuffle).
+        Randomizer r = RandomizerFactory.createRandomizer(RandomizerAlgorithm.XOR_SHIFT_128_PLUS_FAST, seed);
+        int [] nodes = new int [numNodes];
+        for(int node = 0; node < numNodes; node++){
+            nodes[node] = node;
+        }
+        for(int i = 0; i < k; i++){
+            int j = i + r.nextInt(numNodes - i);
+            int tmp = nodes[i];
+            nodes[i] = nodes[j];
+            nodes[j] = tmp;
+        }
+        final int [] pivots = Arrays.copyOf(nodes, k);
+        Arrays.sort(pivots);
+
+        // Distances from the pivots, accumulated in the reached nodes by each thread.
+        final int numBatches = (k + BATCH - 1) / BATCH;
+        final long [] [] sums = new long [this.numThreads] [];
+        final int [] [] counts = new int [this.numThreads] [];
+        final int [] [] bounds = new int [this.numThreads] [];
+        final int [] pivotEcc = new int [numNodes];
+        this.forEachThread(t -> {
+            long [] [] buffers = new long [3] [numNodes];
+            sums[t] = new long [numNodes];
+            counts[t] = new int [numNodes];
+            bounds[t] = new int [numNodes];
+            Arrays.fill(bounds[t], Integer.MAX_VALUE);
+            int [] levels = new int [BATCH];
+            for(int batch = t; batch < numBatches; batch += this.numThreads){
+                int from = batch * BATCH;
+                int to = Math.min(k, from + BATCH);
+                multiSourceBFS(this.graph, pivots, from, to, buffers, null, null, pivotEcc, sums[t], counts[t]);
+                // Second sweep to bound the eccentricity of the reached nodes.
+                for(int i = from; i < to; i++){
+                    levels[i - from] = pivotEcc[pivots[i]];
+                }
+                boundEccentricities(this.graph, pivots, from, to, levels, buffers, bounds[t]);
+            }
+        });
+        for(int t = 1; t < this.numThreads; t++){
+            for(int node = 0; node < numNodes; node++){
+                sums[0][node] += sums[t][node];
+                counts[0][node] += counts[t][node];
+                bounds[0][node] = Math.min(bounds[0][node], bounds[t][node]);
+            }
+        }
+
+        double [] apl = new double [numNodes];
+        double [] errors = new double [numNodes];
+        double log = Math.log(2.0 / (1.0 - confidence));
+        for(int node = 0; node < numNodes; node++){
+            int n = counts[0][node];
+            if (n > 0){
+                apl[node] = (double) sums[0][node] / (double) n;
+                errors[node] = (double) (bounds[0][node] - 1) * Math.sqrt(log / (2.0 * (double) n));
+            }
+        }
+        return new PathLengthEstimate(apl, errors, confidence, k);
+    }
+    /**
+     * Eccentricity of the nodes: distance to the farthest node they reach.
+     * @return Eccentricity of each node.
+     */
+    public int [] getEccentricities(){
+        this.calculateDistances();
+        return Arrays.copyOf(this.eccentricity, this.eccentricity.length);
+    }
+    /**
+     * Calculates the sums of distances, the reached nodes and the eccentricity of all the
+     * nodes (only the first time).
+     */
+    private synchronized void calculateDistances(){
+        if (this.distanceSums != null)
+            return;
+        final int numNodes = this.graph.getNumNodes();
+        final long [] sums = new long [numNodes];
+        final int [] reach = new int [numNodes];
+        final int [] ecc = new int [numNodes];
+        final int numBatches = (numNodes + BATCH - 1) / BATCH;
+        this.forEachThread(t -> {
+            long [] [] buffers = new long [3] [numNodes];
+            for(int batch = t; batch < numBatches; batch += this.numThreads){
+                int from = batch * BATCH;
+                multiSourceBFS(this.graph, null, from, Math.min(numNodes, from + BATCH), buffers, sums, reach, ecc, null, null);
+            }
+        });
+        this.reached = reach;
+        this.eccentricity = ecc;
+        this.distanceSums = sums;
+    }
+    /**
+     * Breadth first search from up to 64 sources at the same time. Bit i of the words of a
+     * node tells if the node has been reached from (seen), or is in the frontier of, the
+     * i-th source of the batch. The distances are accumulated in the sources and/or in the
+     * reached nodes (the outputs may be null).
+     * @param graph Adjacency.
+     * @param sources Sources (null if the sources are the nodes from .. to - 1).
+     * @param from First source.
+     * @param to Last source (excluded).
+     * @param buffers Seen, frontier and next frontier words of each node.
+     * @param sums Output: sum of distances of each source.
+     * @param reach Output: nodes reached by each source.
+     * @param ecc Output: eccentricity of each source (indexed by node).
+     * @param targetSums Output: sum of distances from the sources to each node.
+     * @param targetCounts Output: number of sources which reach each node.
+     */
+    private static void multiSourceBFS(CSRGraph graph, int [] sources, int from, int to, long [] [] buffers,
+            long [] sums, int [] reach, int [] ecc, long [] targetSums, int [] targetCounts){
+        int [] offsets = graph.getOffsets();
+        int [] targets = graph.getTargets();
+        int numNodes = graph.getNumNodes();
+        long [] seen = buffers[0];
+        long [] frontier = buffers[1];
+        long [] next = buffers[2];
+        Arrays.fill(seen, 0L);
+        Arrays.fill(frontier, 0L);
+        for(int i = from; i < to; i++){
+            int source = sources == null ? i : sources[i];
+            seen[source] |= 1L << (i - from);
+            frontier[source] = seen[source];
+        }
+        boolean active = true;
+        for(int level = 1; active; level++){
+            // Expansion of the frontier.
+            for(int node = 0; node < numNodes; node++){
+                long f = frontier[node];
+                if (f != 0L){
+                    for(int pos = offsets[node]; pos < offsets[node + 1]; pos++){
+                        next[targets[pos]] |= f;
+                    }
+                }
+            }
+            // New nodes of each source.
+            active = false;
+            long levelSources = 0L;
+            for(int node = 0; node < numNodes; node++){
+                long n = next[node] & ~seen[node];
+                next[node] = 0L;
+                frontier[node] = n;
+                if (n != 0L){
+                    seen[node] |= n;
+                    levelSources |= n;
+                    active = true;
+                    if (targetSums != null){
+                        int c = Long.bitCount(n);
+                        targetSums[node] += (long) level * c;
+                        targetCounts[node] += c;
+                    }
+                    if (sums != null){
+                        while (n != 0L){
+                            int source = from + Long.numberOfTrailingZeros(n);
+                            sums[source] += level;
+                            reach[source]++;
+                            n &= n - 1;
+                        }
+                    }
+                }
+            }
+            while (levelSources != 0L){
+                int i = from + Long.numberOfTrailingZeros(levelSources);
+                ecc[sources == null ? i : sources[i]] = level;
+                levelSources &= levelSources - 1;
+            }
+        }
+    }
+    /**
+     * Bounds the eccentricity of the nodes reached from a batch of sources by
+     * d(node, source) + ecc(source), keeping the lowest bound of each node.
+     * @param graph Adjacency.
+     * @param sources Sources.
+     * @param from First source.
+     * @param to Last source (excluded).
+     * @param sourceEcc Eccentricity of the sources of the batch.
+     * @param buffers Seen, frontier and next frontier words of each node.
+     * @param bounds Input/output: eccentricity bound of each node.
+     */
+    private static void boundEccentricities(CSRGraph graph, int [] sources, int from, int to, int [] sourceEcc,
+            long [] [] buffers, int [] bounds){
+        int [] offsets = graph.getOffsets();
+        int [] targets = graph.getTargets();
+        int numNodes = graph.getNumNodes();
+        long [] seen = buffers[0];
+        long [] frontier = buffers[1];
+        long [] next = buffers[2];
+        Arrays.fill(seen, 0L);
+        Arrays.fill(frontier, 0L);
+        for(int i = from; i < to; i++){
+            seen[sources[i]] |= 1L << (i - from);
+            frontier[sources[i]] = seen[sources[i]];
+            bounds[sources[i]] = Math.min(bounds[sources[i]], sourceEcc[i - from]);
+        }
+        boolean active = true;
+        for(int level = 1; active; level++){
+            for(int node = 0; node < numNodes; node++){
+                long f = frontier[node];
+                if (f != 0L){
+                    for(int pos = offsets[node]; pos < offsets[node + 1]; pos++){
+                        next[targets[pos]] |= f;
+                    }
+                }
+            }
+            active = false;
+            for(int node = 0; node < numNodes; node++){
+                long n = next[node] & ~seen[node];
+                next[node] = 0L;
+                frontier[node] = n;
+                if (n != 0L){
+                    seen[node] |= n;
+                    active = true;
+                    while (n != 0L){
+                        int bound = level + sourceEcc[Long.numberOfTrailingZeros(n)];
+                        if (bound < bounds[node])
+                            bounds[node] = bound;
+                        n &= n - 1;
+                    }
+                }
+            }
+        }
+    }
+    /**
+     * Estimation of the average path lengths from a sample of pivots
+     * (@see socialnetwork.ShortestPaths.estimateAveragePathLengths).
+     */
+    public static class PathLengthEstimate {
+        private final double [] averagePathLengths;
+        private final double [] errorBounds;
+        private final double confidence;
+        private final int numPivots;
+
+        PathLengthEstimate(double [] averagePathLengths, double [] errorBounds, double confidence, int numPivots){
+            this.averagePathLengths = averagePathLengths;
+            this.errorBounds = errorBounds;
+            this.confidence = confidence;
+            this.numPivots = numPivots;
+        }
+        /**
+         * Get the estimated average path length of each node.
+         * @return Average path lengths.
+         */
+        public double [] getAveragePathLengths(){
+            return this.averagePathLengths;
+        }
+        /**
+         * Get the error bound of each estimation: the exact average path length is in
+         * [estimation - bound, estimation + bound] with the given confidence.
+         * @return Error bounds.
+         */
+        public double [] getErrorBounds(){
+            return this.errorBounds;
+        }
+        /**
+         * Get the confidence of the error bounds.
+         * @return Confidence.
+         */
+        public double getConfidence(){
+            return this.confidence;
+        }
+        /**
+         * Get the number of pivots of the estimation.
+         * @return Number of pivots.
+         */
+        public int getNumPivots(){
+            return this.numPivots;
+        }
+    }
+    /**
+     * Task executed by each thread.
+     */
+    private interface ThreadTask {
+        void run(int thread);
+    }
+    /**
+     * Runs a task per thread and waits for them.
+     * @param task Task.
+     */
+    private void forEachThread(final ThreadTask task){
+        if (this.numThreads == 1){
+            task.run(0);
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool(this.numThreads);
+        try {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(this.numThreads);
+            for(int t = 0; t < this.numThreads; t++){
+                final int thread = t;
+                tasks.add(pool.submit(() -> task.run(thread)));
+            }
+            for (ForkJoinTask<?> t: tasks) {
+                t.join();
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+    /**
+     * Arrays of a thread for the algorithm of Brandes.
+     */
+    private static class BrandesWorkspace {
+        private final int [] distance;
+        private final double [] sigma; // Number of shortest paths from the source.
+        private final double [] delta; // Dependency of the source on each node.
+        private final int [] order; // Nodes in order of distance (queue and stack).
+        private final double [] betweenness;
+
+        BrandesWorkspace(int numNodes){
+            this.distance = new int [numNodes];
+            this.sigma = new double [numNodes];
+            this.delta = new double [numNodes];
+            this.order = new int [numNodes];
+            this.betweenness = new double [numNodes];
+            Arrays.fill(this.distance, -1);
+        }
+        /**
+         * Adds the dependencies of a source to the betweenness.
+         * @param graph Adjacency.
+         * @param source Source.
+         */
+        void accumulate(CSRGraph graph, int source){
+            int [] offsets = graph.getOffsets();
+            int [] targets = graph.getTargets();
+            int head = 0, tail = 0;
+            this.distance[source] = 0;
+            this.sigma[source] = 1.0;
+            this.order[tail++] = source;
+            while (head < tail){
+                int v = this.order[head++];
+                int dv = this.distance[v] + 1;
+                for(int pos = offsets[v]; pos < offsets[v + 1]; pos++){
+                    int w = targets[pos];
+                    if (this.distance[w] < 0){
+                        this.distance[w] = dv;
+                        this.order[tail++] = w;
+                    }
+                    if (this.distance[w] == dv)
+                        this.sigma[w] += this.sigma[v];
+                }
+            }
+            // Dependencies in order of decreasing distance (predecessors are the neighbours
+            // one step closer to the source).
+            for(int i = tail - 1; i > 0; i--){
+                int w = this.order[i];
+                int dw = this.distance[w] - 1;
+                double coef = (1.0 + this.delta[w]) / this.sigma[w];
+                for(int pos = offsets[w]; pos < offsets[w + 1]; pos++){
+                    int v = targets[pos];
+                    if (this.distance[v] == dw)
+                        this.delta[v] += this.sigma[v] * coef;
+                }
+                this.betweenness[w] += this.delta[w];
+            }
+            // Reset of the reached nodes.
+            for(int i = 0; i < tail; i++){
+                int v = this.order[i];
+                this.distance[v] = -1;
+                this.sigma[v] = 0.0;
+                this.delta[v] = 0.0;
+            }
+        }
+    }
+}
@@ -25,10 +25,8 @@ package socialnetwork;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.commons.cli.CommandLine;
@@ -38,9 +36,6 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.graphstream.algorithm.APSP;
 import org.graphstream.algorithm.APSP.APSPInfo;
-import org.graphstream.algorithm.BetweennessCentrality;
-import org.graphstream.algorithm.measure.ClosenessCentrality;
-import org.graphstream.graph.BreadthFirstIterator;
 import org.graphstream.graph.Graph;
 import org.graphstream.graph.Node;
 import org.graphstream.graph.implementations.SingleGraph;
@@ -86,6 +81,18 @@ public class SocialNetwork {
      * Metrics related to the social network.
      */
     private NetworkMetrics metrics;
+    /**
+     * Adjacency snapshot (compressed sparse row) of the social network.
+     */
+    private CSRGraph adjacency;
+    /**
+     * File the social network was loaded from (null if it was not loaded from a file).
+     */
+    private String sourcePath;
+    /**
+     * Shortest path centralities of the social network.
+     */
+    private ShortestPaths shortestPaths;
     
     // Flags 
     static String filePath = "";
@@ -139,6 +146,8 @@ public class SocialNetwork {
         }
         numNodes = this.network.getNodeCount(); // Setting the number of edges and nodes.
         numEdges = this.network.getEdgeCount();
+        sourcePath = filePath;
+        adjacency = CSRGraph.fromGraph(this.network);
         setNetworkMetrics();
     }
     /* ----------------------------------- Setters. ------------------------------------------- */
@@ -162,13 +171,26 @@ public class SocialNetwork {
      */
     public void setGraph(Graph graph){
         this.network = graph;
+        this.adjacency = null;
+        this.shortestPaths = null;
     }
     /**
-     * Set the social network metrics. 
+     * Set the social network metrics. The metrics are calculated when they are requested
+     * (@see socialnetwork.NetworkMetrics).
      */
     public void setNetworkMetrics(){
     	metrics = new NetworkMetrics(this);
     }
+    /**
+     * Keep the network metrics in a sidecar file next to the network file (the file path 
+     * followed by ".metrics"), so they are only calculated once (@see socialnetwork.MetricsCache).
+     * Nothing is done if the network was not loaded from a file.
+     */
+    public void enableMetricsCache(){
+        if(sourcePath != null){
+            getNetworkMetrics().setCache(new MetricsCache(sourcePath + MetricsCache.EXTENSION, getAdjacency()));
+        }
+    }
     /* -------------------------------------- Getters. --------------------------------------- */
     /**
      * Get the number of nodes of social network.
@@ -204,6 +226,9 @@ public class SocialNetwork {
      * @return Average degree.
      */
     public double getAverageDegree(){
+        if(this.network == null){
+            return (float) (this.getNumEdges() * 2) / (float) this.getNumNodes();
+        }
         return averageDegree(this.network);
     }
     /**
@@ -211,6 +236,10 @@ public class SocialNetwork {
      * @return Density. 
      */
     public double getDensity(){
+        if(this.network == null){
+            float n = this.getNumNodes();
+            return n > 0 ? (2.0f * this.getNumEdges()) / (n * (n - 1)) : 0.0;
+        }
         return density(this.network);
     }
     /**
@@ -218,6 +247,13 @@ public class SocialNetwork {
      * @return Average clustering coefficient.
      */
     public double getAverageCC(){
+        if(this.network == null){
+            double sum = 0.0;
+            for(double cc: this.getNetworkMetrics().getMetric(NetworkMetrics.Metric.CLUSTERING)){
+                sum += cc;
+            }
+            return sum / (double) this.getNumNodes();
+        }
         return averageClusteringCoefficient(this.network);
     }
     /**
@@ -225,6 +261,13 @@ public class SocialNetwork {
      * @return Diameter.
      */
     public double getDiameter(){
+        if(this.network == null){
+            int diameter = 0;
+            for(int ecc: this.getShortestPaths().getEccentricities()){
+                diameter = Math.max(diameter, ecc);
+            }
+            return diameter;
+        }
         return diameter(this.network);
     }
     /**
@@ -232,8 +275,34 @@ public class SocialNetwork {
      * @return metrics
      */
     public NetworkMetrics getNetworkMetrics(){
+    	if(metrics == null){
+    		setNetworkMetrics();
+    	}
     	return metrics;
     }
+    /**
+     * Get the adjacency snapshot (compressed sparse row) of the social network.
+     * It is built from the graph the first time it is requested.
+     * @return Adjacency snapshot.
+     */
+    public CSRGraph getAdjacency(){
+        if(this.adjacency == null){
+            this.adjacency = CSRGraph.fromGraph(this.network);
+        }
+        return this.adjacency;
+    }
+    
+    /**
+     * Get the shortest path centralities of the social network (@see socialnetwork.ShortestPaths).
+     * They use all the available processors.
+     * @return Shortest path centralities.
+     */
+    public synchronized ShortestPaths getShortestPaths(){
+        if(this.shortestPaths == null){
+            this.shortestPaths = new ShortestPaths(this.getAdjacency(), Runtime.getRuntime().availableProcessors());
+        }
+        return this.shortestPaths;
+    }
     
     /* ------------------------------------ Class Methods. ---------------------------------- */
     /**
@@ -288,20 +357,23 @@ public class SocialNetwork {
      * @return Social network's degree distribution.
      */
     public double[] getDegreeDistribution(){
+        CSRGraph csr = this.getAdjacency();
         double[] netDegrees = new double[this.getNumNodes()];
         for(int node =0; node < this.getNumNodes(); node++){
-            netDegrees[node] = (double)this.network.getNode(node).getDegree();
+            netDegrees[node] = (double)csr.getDegree(node);
         }
         return netDegrees;
     }
     /**
-     * Get the number of nodes reachable to two edges of the node.
+     * Get the number of nodes reachable to two edges of the node. The nodes are calculated
+     * in parallel with all the available processors.
      * @return Number of nodes reachable at two steps from the given node.
      */
     public double[] getTwoStepNodes(){
+        int[] reach = this.getAdjacency().getTwoStepReach(Runtime.getRuntime().availableProcessors());
         double[] netTwoSteps = new double[this.getNumNodes()];
         for(int node = 0; node < this.getNumNodes(); node++){
-            netTwoSteps[node] = this.calculateTwoSteps(node);
+            netTwoSteps[node] = (double)reach[node];
         }
         return netTwoSteps;
     }
@@ -316,28 +388,24 @@ public class SocialNetwork {
     /**
      * Average path length is a concept in network topology that is defined as the 
      * average number of steps along the shortest paths for all possible pairs of 
-     * network nodes.
-     * @return
+     * network nodes. For each node, it is the average length of the shortest paths to the 
+     * nodes it reaches.
+     * @return Average path length of each node.
      */
     public double [] getAveragePathLengths(){
-    	double[] avpls = new double[this.getNumNodes()];
-
-    	for (int node = 0; node < this.getNumNodes(); node++){
-	        BreadthFirstIterator<Node> k = new BreadthFirstIterator<>(this.getGraph().getNode(node), false);
-	        while (k.hasNext()) {
-	                k.next();
-	        }
-	        for (int nodeaux = 0; nodeaux < this.getNumNodes(); nodeaux++){
-                if (nodeaux != node) {
-		            int depth = k.getDepthOf(this.getGraph().getNode(nodeaux));
-		            if (depth >0) {
-		            	avpls[node] += (double) depth;
-		            }
-                }
-                avpls[node] /= ((double)this.getNumNodes() - (double)(this.getNumNodes()-1));
-	        }
-    	}
-	    return avpls;
+    	return this.getShortestPaths().getAveragePathLengths();
+    }
+    /**
+     * Estimates the average path length of each node from the shortest paths to a sample of 
+     * nodes, for networks too large to calculate all the shortest paths 
+     * (@see socialnetwork.ShortestPaths.estimateAveragePathLengths).
+     * @param numPivots Number of sampled nodes.
+     * @param confidence Confidence of the error bounds of the estimation.
+     * @param seed Seed of the sample.
+     * @return Estimated average path lengths and their error bounds.
+     */
+    public ShortestPaths.PathLengthEstimate estimateAveragePathLengths(int numPivots, double confidence, long seed){
+    	return this.getShortestPaths().estimateAveragePathLengths(numPivots, confidence, seed);
     }
     /* Centrality measures refer to a group of metrics that aim to quantify the 
      * "importance" or "influence" (in a variety of senses) of a particular node 
@@ -345,20 +413,14 @@ public class SocialNetwork {
      * */
     /**
      * Eccentricity  is the largest of the elementary paths from a node to any other vertex of the connected graph.
-     * @return
+     * @return Inverse of the eccentricity of each node (0 for isolated nodes, which reach nothing).
      */
     public double [] getEccentricities(){
     	double [] eccentricities = new double[this.getNumNodes()];
-    	
-    	//APSP apsp = new APSP();
- 		//apsp.init(this.getGraph()); // registering APSP as a sink for the graph
- 		//apsp.setDirected(false); // undirected graph
- 		//apsp.compute(); // the method that actually computes shortest paths
+    	int [] ecc = this.getShortestPaths().getEccentricities();
  		
     	for(int node = 0; node < this.getNumNodes(); node++){
-    		//APSPInfo info = this.getGraph().getNode(node).getAttribute(APSPInfo.ATTRIBUTE_NAME);
-    		//eccentricities[node] = 1.0 / (double) info.getMaximumLength();
-    		eccentricities[node] = 1.0 / (double) unweightedEccentricity(this.getGraph().getNode(node), false);
+    		eccentricities[node] = ecc[node] > 0 ? 1.0 / (double) ecc[node] : 0.0;
     	}
     	
     	return eccentricities;
@@ -370,16 +432,7 @@ public class SocialNetwork {
      * @return
      */
     public double [] getBetweennessCentrality(){
-    	double [] betweeness = new double[this.getNumNodes()];
-    	
-    	BetweennessCentrality bc = new BetweennessCentrality();
-    	bc.init(this.getGraph());
-    	bc.compute();
-    	
-    	for(int node = 0; node < this.getNumNodes(); node++){
-    		betweeness[node] = this.getGraph().getNode(node).getAttribute("Cb");
-    	}
-    	return betweeness;
+    	return this.getShortestPaths().getBetweenness();
     }
     /**
      * The closeness centrality in a graph refers to a possible measure of a vertex in said graph, 
@@ -387,16 +440,7 @@ public class SocialNetwork {
      * @return
      */
     public double [] getClosenessCentrality(){
-    	double [] closeness = new double [this.getNumNodes()];
-    	
-    	ClosenessCentrality cc = new ClosenessCentrality();
-    	cc.init(this.getGraph());
-    	cc.compute();
-    	
-    	for(int node = 0; node < this.getNumNodes(); node++){
-    		closeness[node] = this.getGraph().getNode(node).getAttribute("closeness");
-    	}
-    	return closeness;
+    	return this.getShortestPaths().getCloseness();
     }
     /**
      * Shows the social network information in screen 
@@ -426,20 +470,13 @@ public class SocialNetwork {
         return (double)node.getDegree();
     }
     /**
-     * Calculate the number of nodes reachable at two steps from the given node. 
+     * Calculate the number of nodes reachable at one or two steps from the given node 
+     * (the node itself excluded). 
      * @param numNode Origin node. 
      * @return Number of nodes at two steps from the origin node.
      */
     public double calculateTwoSteps(int numNode){
-        Set<Integer> neighboursTwoSteps = new HashSet<>();
-        List<Integer> neighbours = getNeighborsOfNodeFromGS(numNode);
-        neighboursTwoSteps.addAll(neighbours);
-
-        for(int neighbour = 0; neighbour < neighbours.size(); neighbour++){
-            neighboursTwoSteps.addAll(this.getNeighborsOfNodeFromGS(neighbour));
-        }
-        
-        return (double)neighboursTwoSteps.size();
+        return (double)this.getAdjacency().getTwoStepReach(numNode, new int[this.getNumNodes()]);
     }
     /**
      * Calculate the clustering coefficient of the given node.
@@ -458,6 +495,20 @@ public class SocialNetwork {
         this.network.clear();
         this.network = null;
     }
+    /**
+     * Free memory by releasing the GraphStream graph once the adjacency snapshot and the 
+     * network metrics have been built. The simulation only needs the snapshot, and the 
+     * clustering coefficients (the only metric which delegates on GraphStream) are calculated 
+     * (or loaded from the metrics cache) before. The summary of the network is calculated from 
+     * the snapshot afterwards, but the methods which work with the nodes of the graph 
+     * (getNode, displayNetwork, toGexf, ...) can not be used.
+     */
+    public void releaseGraph(){
+        this.getAdjacency();
+        this.getNetworkMetrics().calculateMetrics(NetworkMetrics.Metric.DEGREE, 
+                NetworkMetrics.Metric.TWO_STEPS, NetworkMetrics.Metric.CLUSTERING);
+        this.network = null;
+    }
     /**
      * Utility that converts an .dgs file to .gexf file.
      * @param outputFile 
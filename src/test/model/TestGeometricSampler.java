@@ -0,0 +1,160 @@
+package test.model;
+
+import model.GeometricSampler;
+import util.random.Randomizer;
+import util.random.RandomizerFactory;
+import util.random.RandomizerFactory.RandomizerAlgorithm;
+
+/**
+ * Statistical test of the geometric skip sampling of the word of mouth and decay trials
+ * (@see model.GeometricSampler). The sampler is compared with the per-trial Bernoulli
+ * sampling (a random number for each trial) on:
+ * 1) The frequency of successes, which must match the probability of the trials.
+ * 2) The distribution of the number of successes per word (chi-square test between both
+ * samplings).
+ * 3) The independence of consecutive trials, also across words.
+ * 4) The thinning of trials with a lower probability than the one of the sampler.
+ */
+public class TestGeometricSampler {
+
+	private static final int WORDS = 200000;
+	private static final int TRIALS_PER_WORD = 24;
+	private static final double MAX_Z = 4.5;
+	private static final double [] PROBABILITIES = new double [] {0.01, 0.1, 0.3, 0.8, 1.0};
+
+	private static Randomizer newRandomizer(long seed){
+		return RandomizerFactory.createRandomizer(RandomizerAlgorithm.XOR_SHIFT_128_PLUS_FAST, seed);
+	}
+
+	private static long bernoulli(long trials, double p, Randomizer r){
+		long selected = 0L;
+		while (trials != 0L){
+			long bit = Long.lowestOneBit(trials);
+			if (r.nextDouble() < p)
+				selected |= bit;
+			trials ^= bit;
+		}
+		return selected;
+	}
+
+	private static double zScore(long successes, long trials, double p){
+		if (p <= 0.0 || p >= 1.0)
+			return successes == (long) (p * trials) ? 0.0 : Double.POSITIVE_INFINITY;
+		return (successes - trials * p) / Math.sqrt(trials * p * (1.0 - p));
+	}
+
+	/**
+	 * Chi-square statistic of two samples of counts (homogeneity test), merging the sparse
+	 * categories.
+	 * @return {statistic, degrees of freedom}.
+	 */
+	private static double [] chiSquare(long [] a, long [] b){
+		double na = 0, nb = 0;
+		for(int i = 0; i < a.length; i++){
+			na += a[i];
+			nb += b[i];
+		}
+		double stat = 0.0;
+		int df = -1;
+		long ca = 0, cb = 0;
+		for(int i = 0; i < a.length; i++){
+			ca += a[i];
+			cb += b[i];
+			if (ca + cb >= 50 || i == a.length - 1){
+				double expa = (ca + cb) * na / (na + nb);
+				double expb = (ca + cb) * nb / (na + nb);
+				if (expa > 0.0 && expb > 0.0){
+					stat += (ca - expa) * (ca - expa) / expa + (cb - expb) * (cb - expb) / expb;
+					df++;
+				}
+				ca = 0;
+				cb = 0;
+			}
+		}
+		return new double [] {stat, Math.max(df, 1)};
+	}
+
+	/**
+	 * Critical value of the chi-square distribution for a significance of 0.001
+	 * (Wilson-Hilferty approximation).
+	 */
+	private static double chiSquareCritical(double df){
+		double z = 3.09;
+		double t = 1.0 - 2.0 / (9.0 * df) + z * Math.sqrt(2.0 / (9.0 * df));
+		return df * t * t * t;
+	}
+
+	private static boolean check(String name, boolean ok, String detail){
+		System.out.println((ok ? "[OK]     " : "[FAILED] ") + name + " " + detail);
+		return ok;
+	}
+
+	public static void main(String args[]){
+		boolean ok = true;
+		Randomizer masks = newRandomizer(1L);
+		long full = (1L << TRIALS_PER_WORD) - 1L;
+
+		for (double p: PROBABILITIES){
+			GeometricSampler sampler = new GeometricSampler(newRandomizer(2L), p);
+			Randomizer reference = newRandomizer(3L);
+			long trials = 0, successes = 0;
+			long pairs = 0, bothSuccess = 0;
+			long [] perWordSkip = new long [TRIALS_PER_WORD + 1];
+			long [] perWordBernoulli = new long [TRIALS_PER_WORD + 1];
+			boolean started = false, lastSuccess = false;
+
+			for(int w = 0; w < WORDS; w++){
+				// Words with a random set of trials, as the awareness words of the customers.
+				long word = ((long) masks.nextInt(1 << 30) << 30 | masks.nextInt(1 << 30)) & full;
+				long selected = sampler.sample(word);
+				if ((selected & ~word) != 0L)
+					ok = check("Trials p=" + p, false, "successes out of the trials");
+				trials += Long.bitCount(word);
+				successes += Long.bitCount(selected);
+				// Consecutive trials (the last of a word and the first of the next one included).
+				long rest = word;
+				while (rest != 0L){
+					long bit = Long.lowestOneBit(rest);
+					boolean success = (selected & bit) != 0L;
+					if (started){
+						pairs++;
+						if (success && lastSuccess)
+							bothSuccess++;
+					}
+					started = true;
+					lastSuccess = success;
+					rest ^= bit;
+				}
+				// Successes per word with all the trials.
+				perWordSkip[Long.bitCount(sampler.sample(full))]++;
+				perWordBernoulli[Long.bitCount(bernoulli(full, p, reference))]++;
+			}
+			double z = zScore(successes, trials, p);
+			ok &= check("Frequency p=" + p, Math.abs(z) < MAX_Z, "(" + successes + "/" + trials + ", z=" + z + ")");
+
+			double z2 = zScore(bothSuccess, pairs, p * p);
+			ok &= check("Independence p=" + p, Math.abs(z2) < MAX_Z, "(" + bothSuccess + "/" + pairs + ", z=" + z2 + ")");
+
+			double [] chi = chiSquare(perWordSkip, perWordBernoulli);
+			ok &= check("Successes per word p=" + p, chi[0] < chiSquareCritical(chi[1]),
+					"(chi2=" + chi[0] + ", df=" + chi[1] + ")");
+		}
+
+		// Thinning: trials with probability q sampled by a sampler with probability p >= q.
+		double p = 0.5;
+		for (double q: new double [] {0.05, 0.25, 0.5}){
+			GeometricSampler sampler = new GeometricSampler(newRandomizer(4L), p);
+			long trials = 0, successes = 0;
+			for(int w = 0; w < WORDS; w++){
+				trials += TRIALS_PER_WORD;
+				successes += Long.bitCount(sampler.sample(full, q));
+			}
+			double z = zScore(successes, trials, q);
+			ok &= check("Thinning p=" + p + " q=" + q, Math.abs(z) < MAX_Z, "(" + successes + "/" + trials + ", z=" + z + ")");
+		}
+
+		System.out.println(ok ? "Geometric sampling is equivalent to the Bernoulli sampling." : "Geometric sampling test FAILED.");
+		if (!ok)
+			System.exit(1);
+	}
+}
@@ -1,5 +1,6 @@
 package test.socialnetwork;
 
+import socialnetwork.NetworkMetrics.Metric;
 import socialnetwork.SocialNetwork;
 
 public class LoadNetworks {
@@ -30,6 +31,7 @@ public class LoadNetworks {
 		for(int eval = 0; eval < numEvaluations; eval++){
 			sT = System.currentTimeMillis();
 			nw.setNetworkMetrics();
+			nw.getNetworkMetrics().calculateMetrics(Metric.DEGREE, Metric.TWO_STEPS, Metric.CLUSTERING);
 			eT = System.currentTimeMillis();
 			tT += (eT - sT) / 1000.0;
 		}
@@ -0,0 +1,67 @@
+package util;
+
+import org.apache.commons.math3.distribution.TDistribution;
+
+/**
+ * Running mean and variance of a sequence of values (Welford's algorithm), which are
+ * updated in O(1) per value without keeping the values and without the cancellation of
+ * the sum of squares.
+ */
+public class RunningStatistics {
+
+	private long n;
+	private double mean;
+	private double m2; // Sum of the squared deviations from the mean.
+
+	/**
+	 * Adds a value.
+	 * @param x Value.
+	 */
+	public void add(double x){
+		this.n++;
+		double delta = x - this.mean;
+		this.mean += delta / this.n;
+		this.m2 += delta * (x - this.mean);
+	}
+
+	public long getN(){
+		return this.n;
+	}
+
+	public double getMean(){
+		return this.mean;
+	}
+
+	/**
+	 * @return Sample variance (0 with less than two values).
+	 */
+	public double getVariance(){
+		return this.n > 1 ? this.m2 / (this.n - 1) : 0.0;
+	}
+
+	public double getStandardDeviation(){
+		return Math.sqrt(this.getVariance());
+	}
+
+	/**
+	 * Half-width of the confidence interval of the mean, from the Student's t distribution.
+	 * @param confidence Confidence level (e.g. 0.95).
+	 * @return Half-width (infinite with less than two values).
+	 */
+	public double getHalfWidth(double confidence){
+		if (this.n < 2)
+			return Double.POSITIVE_INFINITY;
+		double sd = this.getStandardDeviation();
+		if (sd == 0.0)
+			return 0.0;
+		// No random generator is needed to get the quantiles.
+		double t = new TDistribution(null, this.n - 1).inverseCumulativeProbability(1.0 - (1.0 - confidence) / 2.0);
+		return t * sd / Math.sqrt(this.n);
+	}
+
+	public void clear(){
+		this.n = 0;
+		this.mean = 0.0;
+		this.m2 = 0.0;
+	}
+}
@@ -0,0 +1,87 @@
+package util;
+
+/**
+ * Selection of the k highest scores of an array without sorting (nor boxing) all of them.
+ * <p>
+ * The candidates are kept in a bounded min-heap of k positions, whose root is the worst
+ * selected one, so the selection costs O(n log k). Ties are broken in favour of the higher
+ * index, as the ranking of Util.sortByValue (a TreeMap filled in index order, where a new
+ * key goes before the keys with the same value).
+ */
+public class TopK {
+
+	private TopK(){
+	}
+
+	/**
+	 * Selects the indexes of the k highest scores.
+	 * @param scores Scores.
+	 * @param k Number of indexes to select (all if it is greater than the number of scores).
+	 * @return Indexes of the k highest scores, from the highest to the lowest.
+	 */
+	public static int [] select(double [] scores, int k){
+		int n = Math.max(0, Math.min(k, scores.length));
+		int [] heap = new int [n];
+		if (n == 0)
+			return heap;
+
+		for(int i = 0; i < n; i++){
+			heap[i] = i;
+			siftUp(scores, heap, i);
+		}
+		for(int i = n; i < scores.length; i++){
+			// The candidate replaces the worst selected index if it ranks before it.
+			if (before(scores, i, heap[0])){
+				heap[0] = i;
+				siftDown(scores, heap, 0, n);
+			}
+		}
+		// Heap sort: the worst index goes to the end each time.
+		for(int size = n - 1; size > 0; size--){
+			int tmp = heap[0];
+			heap[0] = heap[size];
+			heap[size] = tmp;
+			siftDown(scores, heap, 0, size);
+		}
+		return heap;
+	}
+
+	/**
+	 * Ranking order: a higher score first and, for the same score, a higher index first.
+	 * @return True if index a ranks before index b.
+	 */
+	private static boolean before(double [] scores, int a, int b){
+		if (scores[a] > scores[b])
+			return true;
+		if (scores[a] < scores[b])
+			return false;
+		return a > b;
+	}
+
+	private static void siftUp(double [] scores, int [] heap, int pos){
+		int index = heap[pos];
+		while (pos > 0){
+			int parent = (pos - 1) >>> 1;
+			if (!before(scores, heap[parent], index))
+				break;
+			heap[pos] = heap[parent];
+			pos = parent;
+		}
+		heap[pos] = index;
+	}
+
+	private static void siftDown(double [] scores, int [] heap, int pos, int size){
+		int index = heap[pos];
+		int half = size >>> 1;
+		while (pos < half){
+			int child = 2 * pos + 1;
+			if (child + 1 < size && before(scores, heap[child], heap[child + 1]))
+				child++;
+			if (!before(scores, index, heap[child]))
+				break;
+			heap[pos] = heap[child];
+			pos = child;
+		}
+		heap[pos] = index;
+	}
+}
@@ -79,6 +79,19 @@ public final class XorShift128PlusFastPRNG implements Randomizer {
 	public XorShift128PlusFastPRNG( final long seed ) {
 		setSeed( seed );
 	}
+
+	/**
+	 * Creates a new generator in the same state of a given one, so both generate the
+	 * same sequence from now on.
+	 * 
+	 * @param other the generator to copy.
+	 */
+	public XorShift128PlusFastPRNG( final XorShift128PlusFastPRNG other ) {
+		s0 = other.s0;
+		s1 = other.s1;
+		__nextNextGaussian = other.__nextNextGaussian;
+		__haveNextNextGaussian = other.__haveNextNextGaussian;
+	}
 	
 	/** 
 	 * Sets the seed of this generator.